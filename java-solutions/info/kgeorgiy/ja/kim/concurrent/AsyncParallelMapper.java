@@ -0,0 +1,41 @@
+package info.kgeorgiy.ja.kim.concurrent;
+
+import info.kgeorgiy.java.advanced.mapper.ParallelMapper;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * ParallelMapper that can also map without blocking the calling thread.
+ * <p>
+ * The futures are completed by the worker threads, so dependent actions attached with the non-async
+ * methods of {@link CompletableFuture} run on a worker; use the {@code ...Async} variants for long actions.
+ *
+ * @author medvezhonok
+ */
+public interface AsyncParallelMapper extends ParallelMapper {
+    /**
+     * Maps function {@code f} over specified {@code args} in parallel without waiting for the result.
+     *
+     * @param f    the function to apply
+     * @param args the arguments
+     * @param <T>  the type of the arguments
+     * @param <R>  the type of the results
+     * @return a future completed with the results in the order of the arguments once all of them are mapped,
+     * or exceptionally with the first exception thrown by {@code f}
+     */
+    <T, R> CompletableFuture<List<R>> mapAsync(Function<? super T, ? extends R> f, List<? extends T> args);
+
+    /**
+     * Maps function {@code f} over specified {@code args} in parallel, with a future for every element.
+     *
+     * @param f    the function to apply
+     * @param args the arguments
+     * @param <T>  the type of the arguments
+     * @param <R>  the type of the results
+     * @return futures of the results in the order of the arguments; each is completed as soon as its element
+     * is mapped, or exceptionally if the mapping fails before the element is mapped
+     */
+    <T, R> List<CompletableFuture<R>> mapEachAsync(Function<? super T, ? extends R> f, List<? extends T> args);
+}
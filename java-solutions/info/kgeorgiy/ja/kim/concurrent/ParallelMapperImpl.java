@@ -1,23 +1,44 @@
 package info.kgeorgiy.ja.kim.concurrent;
 
-import info.kgeorgiy.java.advanced.mapper.ParallelMapper;
-
+import java.lang.reflect.UndeclaredThrowableException;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 /**
- * Implementation of the ParallelMapper interface that allows
+ * Implementation of the AsyncParallelMapper interface that allows
  * parallel execution of tasks using a pool of worker threads.
+ * <p>
+ * Every call is mapped by at most one task per worker. The tasks of a call claim chunks of consecutive
+ * elements from a cursor shared by the call, so elements are started in index order whichever worker runs them.
+ * Tasks are scheduled by work stealing: every worker owns a deque, and tasks submitted from other threads are
+ * spread over the deques round-robin, while a worker submits the tasks of a nested call to its own deque.
+ * A worker takes tasks from the head of its own deque, so calls are served in submission order,
+ * and steals from the heads of the other workers' deques when its own is empty.
+ * Idle workers are parked. A submission unparks a worker only if no worker is already searching for tasks,
+ * and a searching worker that finds one wakes the next, so a burst of tasks costs a few unparks and no shared lock.
  *
  * @author medvezhonok
  */
-public class ParallelMapperImpl implements ParallelMapper {
+public class ParallelMapperImpl implements AsyncParallelMapper {
+
+    private final List<Worker> workers;
+    private final AtomicInteger parked = new AtomicInteger();
+    private final AtomicInteger searching = new AtomicInteger();
+    private final AtomicInteger nextWorker = new AtomicInteger();
 
-    private final List<Thread> workers;
-    private final Deque<Runnable> tasks;
+    private static final long TARGET_CHUNK_NANOS = 100_000;
+    private static final int CHUNKS_PER_WORKER = 4;
+    private static final int COST_SMOOTHING = 8;
 
 
     /**
@@ -27,86 +48,360 @@ public class ParallelMapperImpl implements ParallelMapper {
      */
     public ParallelMapperImpl(final int threads) {
         workers = new ArrayList<>(threads);
-        tasks = new ArrayDeque<>();
+        IntStream.range(0, threads).forEach(i -> workers.add(new Worker()));
+        workers.forEach(Thread::start);
+    }
 
-        IntStream.range(0, threads).forEach(i -> {
-            Thread t = new Thread(() -> {
-                try {
-                    while (!Thread.interrupted()) {
-                        Runnable task;
-                        synchronized (tasks) {
-                            while (tasks.isEmpty()) {
-                                tasks.wait(); // Пассивное ожидание
-                            }
-                            task = tasks.poll();
-                        }
-                        task.run();
-                    }
-                } catch (InterruptedException ignored) {
-                    // No operations.
-                } finally {
-                    Thread.currentThread().interrupt();
-                }
-            });
-            workers.add(t);
-        });
+    /**
+     * Schedules the task. A worker appends to its own deque, any other thread
+     * appends to the deque of the next worker in round-robin order.
+     *
+     * @param task the task to run
+     */
+    private void submit(final Runnable task) {
+        if (Thread.currentThread() instanceof Worker current && current.owner() == this) {
+            current.tasks.addLast(task);
+        } else {
+            workers.get(Math.floorMod(nextWorker.getAndIncrement(), workers.size())).tasks.addLast(task);
+        }
+        signal();
+    }
 
-        workers.forEach(Thread::start);
+    /**
+     * Unparks one parked worker to search for tasks, unless some worker is searching already.
+     */
+    private void signal() {
+        if (searching.get() > 0 || parked.get() == 0) {
+            return;
+        }
+        for (final Worker worker : workers) {
+            if (worker.wake()) {
+                return;
+            }
+        }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If {@code f} throws, the rest of the call is cancelled: chunks that have not started are skipped
+     * and running ones stop before their next element. The first exception is then rethrown with the
+     * exceptions of chunks that were already running added as suppressed.
+     * If the calling thread is interrupted, the call is cancelled in the same way.
+     */
     @Override
     public <T, R> List<R> map(Function<? super T, ? extends R> f, List<? extends T> args) throws InterruptedException {
-        AtomicInteger counter = new AtomicInteger(args.size());
-        List<R> result = IntStream.range(0, args.size()).<R>mapToObj(i -> null).collect(Collectors.toList());
-
-        for (int i = 0; i < args.size(); i++) {
-            T arg = args.get(i);
-            synchronized (tasks) {
-                tasks.add(getRunnable(f, result, arg, counter, i));
-                tasks.notify();
+        final Batch<R> batch = this.<T, R>start(f, args, false);
+        try {
+            return batch.completion.get();
+        } catch (InterruptedException e) {
+            batch.cancelled = true;
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            } else if (e.getCause() instanceof Error error) {
+                throw error;
             }
+            // f has thrown a checked exception without declaring it.
+            throw new UndeclaredThrowableException(e.getCause());
         }
+    }
 
-        synchronized (result) {
-            while (counter.get() != 0) {
-                result.wait();
-            }
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Cancelling the returned future cancels the call as a failure of {@code f} does.
+     */
+    @Override
+    public <T, R> CompletableFuture<List<R>> mapAsync(Function<? super T, ? extends R> f, List<? extends T> args) {
+        return this.<T, R>start(f, args, false).completion;
+    }
+
+    @Override
+    public <T, R> List<CompletableFuture<R>> mapEachAsync(Function<? super T, ? extends R> f,
+                                                         List<? extends T> args) {
+        return this.<T, R>start(f, args, true).elements;
+    }
+
+    /**
+     * Submits a task per worker, at most one per argument, that maps chunks of the arguments.
+     *
+     * @param f        the {@code Function} to apply to the arguments
+     * @param args     the arguments
+     * @param elements whether to create a future for every element
+     * @param <T>      the type of the input to the {@code Function}
+     * @param <R>      the type of the output of the {@code Function}
+     * @return the {@code Batch} of the call
+     */
+    private <T, R> Batch<R> start(Function<? super T, ? extends R> f, List<? extends T> args, boolean elements) {
+        final int tasks = Math.min(workers.size(), args.size());
+        final Batch<R> batch = new Batch<>(args.size(), tasks, elements);
+        for (int i = 0; i < tasks; i++) {
+            submit(getRunnable(f, args, batch));
         }
+        return batch;
+    }
 
-        return result;
+    /**
+     * Chooses the number of elements of the next chunk of a call. The first chunk of a call maps
+     * a single element to measure the function. The following ones should run for about
+     * {@link #TARGET_CHUNK_NANOS}, judged by the cost of an element measured in this call, to amortize
+     * claiming, but the remaining elements should still make {@link #CHUNKS_PER_WORKER} chunks per worker
+     * to balance uneven elements.
+     *
+     * @param batch the {@code Batch} of the call
+     * @return the number of elements of the next chunk, at least one
+     */
+    private int chunkSize(final Batch<?> batch) {
+        final long cost = batch.elementNanos;
+        if (cost == 0) {
+            return 1;
+        }
+        final long remaining = batch.result.size() - batch.next.get();
+        final long balanced = Math.max(1, remaining / ((long) workers.size() * CHUNKS_PER_WORKER));
+        return (int) Math.max(1, Math.min(balanced, TARGET_CHUNK_NANOS / cost));
     }
 
     /**
-     * Returns a {@code Runnable} that applies the provided {@code Function} to the given argument and stores the result
-     * in the specified index of the given {@code List} of results. Also decrements the provided {@code Counter} and
-     * notifies any waiting threads.
+     * Returns a {@code Runnable} that claims chunks of consecutive arguments from the provided {@code Batch}
+     * until none are left, applies the provided {@code Function} to them and stores the results at the same
+     * indices in the batch, updating the measured cost of an element after every chunk. Then reports the task
+     * as done to the batch. Stops once the batch is cancelled, and records an exception thrown by the
+     * function in the batch.
      *
-     * @param f      the {@code Function} to apply to the given argument
-     * @param result the {@code List} of results to store the computed value in
-     * @param arg    the argument to apply the {@code Function} to
-     * @param t      the {@code Counter} to decrement
-     * @param i      the index in the {@code List} to store the result in
+     * @param f      the {@code Function} to apply to the arguments
+     * @param args   the arguments
+     * @param batch  the {@code Batch} of the call
      * @param <T>    the type of the input to the {@code Function}
      * @param <R>    the type of the output of the {@code Function}
-     * @return a {@code Runnable} that applies the provided {@code Function} to the given argument and stores the result
-     * in the specified index of the given {@code List} of results. Also decrements the provided {@code Timer} and
-     * notifies any waiting threads
+     * @return a {@code Runnable} that maps chunks of the arguments
      */
-    private <T, R> Runnable getRunnable(Function<? super T, ? extends R> f, List<R> result, T arg, AtomicInteger t, int i) {
+    private <T, R> Runnable getRunnable(Function<? super T, ? extends R> f, List<? extends T> args,
+                                        Batch<R> batch) {
         return () -> {
             try {
-                R res = f.apply(arg);
-                synchronized (result) {
-                    result.set(i, res);
-                    t.decrementAndGet();
-                    result.notifyAll();
+                while (!batch.cancelled) {
+                    final int size = chunkSize(batch);
+                    final int from = batch.claim(size);
+                    if (from < 0) {
+                        break;
+                    }
+                    final int to = Math.min(from + size, args.size());
+                    final long start = System.nanoTime();
+                    for (int i = from; i < to && !batch.cancelled; i++) {
+                        batch.set(i, f.apply(args.get(i)));
+                    }
+                    batch.measured(Math.max(1, (System.nanoTime() - start) / (to - from)));
                 }
-            } catch (RuntimeException e) {
-                // ?
+            } catch (Throwable e) {
+                batch.fail(e);
+            } finally {
+                batch.taskDone();
             }
         };
     }
 
+    /**
+     * State of a single mapping call shared by its tasks. The task that finishes last completes the futures.
+     *
+     * @param <R> the type of the results
+     */
+    private static final class Batch<R> {
+        private final List<R> result;
+        private final List<CompletableFuture<R>> elements;
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicInteger remaining;
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private final CompletableFuture<List<R>> completion = new CompletableFuture<>();
+        private volatile boolean cancelled;
+        /** Exponentially weighted moving average of the time to map one element in this call, zero until measured. */
+        private volatile long elementNanos;
+
+        private Batch(final int size, final int tasks, final boolean elements) {
+            result = new ArrayList<>(Collections.nCopies(size, null));
+            this.elements = elements
+                    ? IntStream.range(0, size).mapToObj(i -> new CompletableFuture<R>()).toList()
+                    : null;
+            remaining = new AtomicInteger(tasks);
+            completion.whenComplete((list, e) -> {
+                if (completion.isCancelled()) {
+                    cancelled = true;
+                }
+            });
+            if (tasks == 0) {
+                completion.complete(result);
+            }
+        }
+
+        /**
+         * Claims the next chunk of elements.
+         *
+         * @param size the number of elements to claim, fewer are claimed at the end
+         * @return the index of the first claimed element, or {@code -1} if all elements are claimed
+         */
+        private int claim(final int size) {
+            while (true) {
+                final int from = next.get();
+                if (from >= result.size()) {
+                    return -1;
+                }
+                if (next.compareAndSet(from, from + Math.min(size, result.size() - from))) {
+                    return from;
+                }
+            }
+        }
+
+        /**
+         * Adds a measured cost of an element. Racy update: a concurrent chunk may overwrite this sample,
+         * which only loses it.
+         *
+         * @param cost the time to map one element of a chunk, in nanoseconds
+         */
+        private void measured(final long cost) {
+            final long previous = elementNanos;
+            elementNanos = previous == 0 ? cost : previous + (cost - previous) / COST_SMOOTHING;
+        }
+
+        /**
+         * Stores the result for the element and completes its future.
+         *
+         * @param index the index of the element
+         * @param value the result
+         */
+        private void set(final int index, final R value) {
+            result.set(index, value);
+            if (elements != null) {
+                elements.get(index).complete(value);
+            }
+        }
+
+        /**
+         * Cancels the batch and records the exception, as the cause of the failure if it is the first one
+         * or as a suppressed exception otherwise.
+         *
+         * @param e the exception thrown by the function
+         */
+        private void fail(final Throwable e) {
+            cancelled = true;
+            if (!failure.compareAndSet(null, e) && failure.get() != e) {
+                failure.get().addSuppressed(e);
+            }
+        }
+
+        /**
+         * Completes the futures once the last task is done. After a failure or cancellation, futures of
+         * elements that were not mapped complete exceptionally.
+         */
+        private void taskDone() {
+            if (remaining.decrementAndGet() != 0) {
+                return;
+            }
+            final Throwable e = failure.get();
+            if (e == null && !cancelled) {
+                completion.complete(result);
+                return;
+            }
+            final Throwable cause = e == null ? new CancellationException("Mapping cancelled") : e;
+            completion.completeExceptionally(cause);
+            if (elements != null) {
+                elements.forEach(element -> element.completeExceptionally(cause));
+            }
+        }
+    }
+
+    /**
+     * Worker thread owning a deque of tasks.
+     */
+    private final class Worker extends Thread {
+        private final Deque<Runnable> tasks = new ConcurrentLinkedDeque<>();
+        private final AtomicBoolean idle = new AtomicBoolean();
+
+        private ParallelMapperImpl owner() {
+            return ParallelMapperImpl.this;
+        }
+
+        @Override
+        public void run() {
+            boolean searcher = false;
+            while (!isInterrupted()) {
+                Runnable task = next();
+                boolean found = searcher;
+                if (task == null) {
+                    if (searcher) {
+                        searcher = false;
+                        searching.decrementAndGet();
+                    }
+                    // Announce parking before the last check, so a concurrent submit either
+                    // sees this worker as parked or its task is found by the check.
+                    idle.set(true);
+                    parked.incrementAndGet();
+                    task = next();
+                    while (task == null && idle.get() && !isInterrupted()) {
+                        LockSupport.park(this); // Пассивное ожидание
+                    }
+                    if (idle.compareAndSet(true, false)) {
+                        parked.decrementAndGet();
+                    } else {
+                        // Woken by signal(), which counted this worker as searching.
+                        searcher = true;
+                    }
+                    if (task == null) {
+                        continue;
+                    }
+                    found = true;
+                }
+                if (found) {
+                    if (searcher) {
+                        searcher = false;
+                        searching.decrementAndGet();
+                    }
+                    signal();
+                }
+                task.run();
+            }
+        }
+
+        /**
+         * Wakes the worker up if it is parked.
+         *
+         * @return {@code true} if the worker was parked and has been woken up by this call
+         */
+        private boolean wake() {
+            if (idle.compareAndSet(true, false)) {
+                searching.incrementAndGet();
+                parked.decrementAndGet();
+                LockSupport.unpark(this);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Takes the oldest own task, or steals the oldest task of another worker.
+         *
+         * @return the task to run, or {@code null} if there is none
+         */
+        private Runnable next() {
+            final Runnable own = tasks.pollFirst();
+            if (own != null) {
+                return own;
+            }
+            final int n = workers.size();
+            final int start = ThreadLocalRandom.current().nextInt(n);
+            for (int i = 0; i < n; i++) {
+                final Worker victim = workers.get((start + i) % n);
+                if (victim != this) {
+                    final Runnable stolen = victim.tasks.pollFirst();
+                    if (stolen != null) {
+                        return stolen;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
     @Override
     public void close() {
         workers.forEach(Thread::interrupt);
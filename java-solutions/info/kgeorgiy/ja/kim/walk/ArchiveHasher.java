@@ -0,0 +1,161 @@
+package info.kgeorgiy.ja.kim.walk;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+// Writes a line for every file inside zip and jar archives as "archive!/entry", and for files inside
+// nested archives as "archive!/inner.jar!/entry". Entries are hashed straight from the decompressing
+// stream; a nested archive is hashed while its own entries are read, so nothing is extracted.
+// Entry names are read as UTF-8, and an archive with a name that is not is read again as CP437,
+// which the zip format specifies for names without the UTF-8 flag.
+public final class ArchiveHasher {
+    public static final String SEPARATOR = "!/";
+    private static final List<String> EXTENSIONS = List.of(".zip", ".jar", ".war", ".ear");
+    private static final Charset LEGACY_NAMES = Charset.forName("IBM437");
+
+    private final DigestAlgorithm algorithm;
+
+    public ArchiveHasher(final DigestAlgorithm algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    public static boolean isArchive(final String name) {
+        final String lower = name.toLowerCase(Locale.ROOT);
+        return EXTENSIONS.stream().anyMatch(lower::endsWith);
+    }
+
+    public void writeEntries(final Path archive, final Writer writer) {
+        if (!isArchive(archive.toString())) {
+            return;
+        }
+        try {
+            try {
+                writer.write(readEntries(archive, StandardCharsets.UTF_8));
+            } catch (IllegalArgumentException e) {
+                writer.write(readEntries(archive, LEGACY_NAMES));
+            }
+        } catch (IOException e) {
+            WalkUtils.message("Cannot read archive: " + archive, e, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            WalkUtils.message("Cannot read archive: " + archive, e, e.getMessage());
+            WalkUtils.writeHash(archive.toString(), writer, algorithm.errorCode());
+        }
+    }
+
+    // Throws IllegalArgumentException if a name, including one in a nested archive, cannot be decoded.
+    private String readEntries(final Path archive, final Charset charset) throws IOException {
+        RateLimiter.get().file();
+        final StringWriter entries = new StringWriter();
+        try (final InputStream input = new BufferedInputStream(new LimitedStream(Files.newInputStream(archive)))) {
+            writeEntries(archive.toString(), input, entries, charset);
+        }
+        return entries.toString();
+    }
+
+    private void writeEntries(final String archive, final InputStream input, final Writer writer,
+                              final Charset charset) {
+        final ZipInputStream zip = new ZipInputStream(input, charset);
+        final byte[] buffer = new byte[HashingContext.BUFFER_SIZE];
+        String name = null;
+        try {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                name = archive + SEPARATOR + entry.getName();
+                final MessageDigest digest = algorithm.newDigest();
+                final DigestingStream entryStream = new DigestingStream(zip, digest);
+                StringWriter nested = null;
+                if (isArchive(entry.getName())) {
+                    nested = new StringWriter();
+                    writeEntries(name, entryStream, nested, charset);
+                }
+                while (entryStream.read(buffer) >= 0) {
+                    // Everything not read by the nested archive still counts towards its digest.
+                }
+                WalkUtils.writeHash(name, writer, WalkUtils.toHex(digest.digest()));
+                if (nested != null) {
+                    writer.write(nested.toString());
+                }
+                name = null;
+            }
+        } catch (IOException e) {
+            WalkUtils.message("Cannot read archive: " + archive, e, e.getMessage());
+            if (name != null) {
+                WalkUtils.writeHash(name, writer, algorithm.errorCode());
+            }
+        }
+    }
+
+    // Charges the rate limiter for the bytes read from the archive file, so nested archives are not charged twice.
+    private static final class LimitedStream extends FilterInputStream {
+        private LimitedStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = in.read();
+            if (b >= 0) {
+                RateLimiter.get().bytes(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int read = in.read(b, off, len);
+            if (read > 0) {
+                RateLimiter.get().bytes(read);
+            }
+            return read;
+        }
+    }
+
+    // Digests everything read from the current entry; closing it leaves the archive open.
+    private static final class DigestingStream extends InputStream {
+        private final InputStream in;
+        private final MessageDigest digest;
+
+        private DigestingStream(final InputStream in, final MessageDigest digest) {
+            this.in = in;
+            this.digest = digest;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = in.read();
+            if (b >= 0) {
+                digest.update((byte) b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int read = in.read(b, off, len);
+            if (read > 0) {
+                digest.update(b, off, read);
+            }
+            return read;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
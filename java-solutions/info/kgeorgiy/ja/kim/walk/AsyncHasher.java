@@ -0,0 +1,140 @@
+package info.kgeorgiy.ja.kim.walk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.InvalidPathException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+// Hashes many files at once with AsynchronousFileChannel: up to depth files are being read, each with
+// one read in flight, and completed buffers are fed to the digest of their file. The caller blocks only
+// when the queue is full. Where the platform has no native asynchronous file I/O the channel blocks
+// a pool thread per read, so the pool has a thread per slot.
+public final class AsyncHasher implements AutoCloseable {
+    private static final Set<OpenOption> READ = Set.of(StandardOpenOption.READ);
+
+    private final DigestAlgorithm algorithm;
+    private final Semaphore slots;
+    private final Queue<Slot> free = new ConcurrentLinkedQueue<>();
+    private final ExecutorService executor;
+
+    public AsyncHasher(final DigestAlgorithm algorithm, final int depth) {
+        this.algorithm = algorithm;
+        this.slots = new Semaphore(depth);
+        this.executor = Executors.newFixedThreadPool(depth, runnable -> {
+            final Thread thread = new Thread(runnable, "async-hasher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public CompletableFuture<String> hash(final Path file) throws InterruptedException {
+        slots.acquire();
+        final Slot slot = free.poll();
+        final Read read = new Read(file, slot == null ? new Slot(algorithm) : slot);
+        read.start();
+        return read.result;
+    }
+
+    public String errorCode() {
+        return algorithm.errorCode();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private static final class Slot {
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(HashingContext.BUFFER_SIZE);
+        private final MessageDigest digest;
+
+        private Slot(final DigestAlgorithm algorithm) {
+            this.digest = algorithm.newDigest();
+        }
+    }
+
+    private final class Read implements CompletionHandler<Integer, Void> {
+        private final Path file;
+        private final Slot slot;
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+        private final WalkMetrics metrics = WalkMetrics.get();
+        private AsynchronousFileChannel channel;
+        private long position;
+        private long reading;
+
+        private Read(final Path file, final Slot slot) {
+            this.file = file;
+            this.slot = slot;
+        }
+
+        private void start() {
+            slot.digest.reset();
+            RateLimiter.get().file();
+            final long opening = System.nanoTime();
+            try {
+                channel = AsynchronousFileChannel.open(file, READ, executor);
+                reading = System.nanoTime();
+                metrics.record(WalkMetrics.Stage.OPEN, reading - opening, file, channel.size());
+                next();
+            } catch (IOException | InvalidPathException | UnsupportedOperationException e) {
+                failed(e, null);
+            }
+        }
+
+        private void next() {
+            slot.buffer.clear();
+            channel.read(slot.buffer, position, null, this);
+        }
+
+        @Override
+        public void completed(final Integer read, final Void attachment) {
+            if (read < 0) {
+                final String hash = WalkUtils.toHex(slot.digest.digest());
+                metrics.record(WalkMetrics.Stage.READ, System.nanoTime() - reading, file, position);
+                metrics.file(position);
+                finish(hash);
+                return;
+            }
+            position += read;
+            slot.digest.update(slot.buffer.flip());
+            RateLimiter.get().bytes(read);
+            try {
+                next();
+            } catch (RuntimeException e) {
+                failed(e, null);
+            }
+        }
+
+        @Override
+        public void failed(final Throwable exc, final Void attachment) {
+            WalkUtils.message("Cannot calculate hash", exc, exc.getMessage());
+            metrics.error();
+            finish(algorithm.errorCode());
+        }
+
+        private void finish(final String hash) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    WalkUtils.message("Cannot close file: " + file, e, e.getMessage());
+                }
+            }
+            free.add(slot);
+            slots.release();
+            result.complete(hash);
+        }
+    }
+}
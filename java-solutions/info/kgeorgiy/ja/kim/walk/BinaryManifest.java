@@ -0,0 +1,250 @@
+package info.kgeorgiy.ja.kim.walk;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Walk output sorted by path in a compact binary form with an index, for lookups without a scan.
+//
+// File:    MAGIC, VERSION, blocks, footer, footer offset (long), MAGIC
+// Block:   records of about BLOCK_SIZE bytes, sorted by path
+// Record:  path length (varint), UTF-8 path, label index (varint, 0 for none), digest length (byte), digest
+// Footer:  labels (varint count, then varint length and UTF-8 bytes each), number of entries (varint),
+//          blocks (varint count, then offset (long), varint length and UTF-8 first path each)
+//
+// Labels are the prefixes of labelled hashes, such as "dir-sha-256:". The file is mapped in overlapping
+// segments of SEGMENT bytes starting every STRIDE bytes, so a block always lies within a single segment.
+public final class BinaryManifest implements AutoCloseable {
+    private static final int MAGIC = 0x57424D31;
+    private static final int VERSION = 1;
+    private static final int BLOCK_SIZE = 1 << 16;
+    private static final long STRIDE = 1L << 29;
+    private static final long SEGMENT = STRIDE << 1;
+    private static final int TRAILER = Long.BYTES + Integer.BYTES;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final List<String> labels = new ArrayList<>();
+    private final long entries;
+    private final long[] offsets;
+    private final String[] firstPaths;
+
+    private BinaryManifest(final FileChannel channel) throws IOException {
+        this.channel = channel;
+        final long size = channel.size();
+        if (size < Integer.BYTES * 2 + TRAILER) {
+            throw new IOException("Not a binary manifest: too short");
+        }
+        segments = new MappedByteBuffer[(int) ((size + STRIDE - 1) / STRIDE)];
+        for (int i = 0; i < segments.length; i++) {
+            final long start = i * STRIDE;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT, size - start));
+        }
+
+        final ByteBuffer header = slice(0, Integer.BYTES * 2);
+        final ByteBuffer trailer = slice(size - TRAILER, size);
+        if (header.getInt() != MAGIC || header.getInt() != VERSION || trailer.getInt(Long.BYTES) != MAGIC) {
+            throw new IOException("Not a binary manifest of version " + VERSION);
+        }
+        final long footer = trailer.getLong();
+        if (footer < Integer.BYTES * 2 || footer > size - TRAILER) {
+            throw new IOException("Invalid binary manifest footer offset: " + footer);
+        }
+        final ByteBuffer index = size - TRAILER - footer / STRIDE * STRIDE <= SEGMENT
+                ? slice(footer, size - TRAILER)
+                : ByteBuffer.wrap(read(footer, size - TRAILER));
+        final int labelCount = (int) readVarint(index);
+        for (int i = 0; i < labelCount; i++) {
+            labels.add(readString(index));
+        }
+        entries = readVarint(index);
+        final int blocks = (int) readVarint(index);
+        offsets = new long[blocks + 1];
+        firstPaths = new String[blocks];
+        for (int i = 0; i < blocks; i++) {
+            offsets[i] = index.getLong();
+            firstPaths[i] = readString(index);
+        }
+        offsets[blocks] = footer;
+    }
+
+    public static BinaryManifest open(final Path file) throws IOException {
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new BinaryManifest(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public long entries() {
+        return entries;
+    }
+
+    // Returns the hash written for the path, or null if it is not in the manifest.
+    public String lookup(final String path) {
+        int block = Arrays.binarySearch(firstPaths, path);
+        if (block < 0) {
+            block = -block - 2;
+            if (block < 0) {
+                return null;
+            }
+        }
+        final byte[] target = path.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer records = slice(offsets[block], offsets[block + 1]);
+        while (records.hasRemaining()) {
+            final int length = (int) readVarint(records);
+            final boolean found = length == target.length && records.slice(records.position(), length)
+                    .equals(ByteBuffer.wrap(target));
+            records.position(records.position() + length);
+            final int label = (int) readVarint(records);
+            final byte[] digest = new byte[Byte.toUnsignedInt(records.get())];
+            records.get(digest);
+            if (found) {
+                return (label == 0 ? "" : labels.get(label - 1)) + WalkUtils.toHex(digest);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private ByteBuffer slice(final long from, final long to) {
+        final int segment = (int) (from / STRIDE);
+        final long base = segment * STRIDE;
+        return segments[segment].slice((int) (from - base), (int) (to - from));
+    }
+
+    private byte[] read(final long from, final long to) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate((int) (to - from));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, from + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of binary manifest");
+            }
+        }
+        return buffer.array();
+    }
+
+    // Converts a walk output to a binary manifest, sorting it first if needed.
+    public static void write(final Path manifest, final Path binary, final ManifestSort sort) throws IOException {
+        final Path temp = WalkUtils.temporarySibling(binary);
+        try (final BufferedReader reader = Files.newBufferedReader(sort.sorted(manifest));
+             final DataOutputStream out =
+                     new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            long position = Integer.BYTES * 2;
+
+            final Map<String, Integer> labels = new HashMap<>();
+            final List<String> labelList = new ArrayList<>();
+            final List<Long> offsets = new ArrayList<>();
+            final List<String> firstPaths = new ArrayList<>();
+            final ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK_SIZE << 1);
+            long entries = 0;
+
+            ManifestSort.Entry entry;
+            while ((entry = ManifestSort.next(reader)) != null) {
+                if (block.size() >= BLOCK_SIZE) {
+                    position += flush(block, out);
+                }
+                if (block.size() == 0) {
+                    offsets.add(position);
+                    firstPaths.add(entry.path());
+                }
+                final String hash = entry.hash();
+                final int colon = hash.lastIndexOf(':');
+                final byte[] digest;
+                try {
+                    digest = WalkUtils.fromHex(hash.substring(colon + 1));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Invalid hash for " + entry.path() + ": " + hash, e);
+                }
+                if (digest.length > 0xFF) {
+                    throw new IOException("Digest is too long for " + entry.path());
+                }
+                final int label = colon < 0 ? 0 : labels.computeIfAbsent(hash.substring(0, colon + 1), prefix -> {
+                    labelList.add(prefix);
+                    return labelList.size();
+                });
+                writeString(block, entry.path());
+                writeVarint(block, label);
+                block.write(digest.length);
+                block.write(digest);
+                entries++;
+            }
+            position += flush(block, out);
+
+            final long footer = position;
+            writeVarint(out, labelList.size());
+            for (final String label : labelList) {
+                writeString(out, label);
+            }
+            writeVarint(out, entries);
+            writeVarint(out, offsets.size());
+            for (int i = 0; i < offsets.size(); i++) {
+                out.writeLong(offsets.get(i));
+                writeString(out, firstPaths.get(i));
+            }
+            out.writeLong(footer);
+            out.writeInt(MAGIC);
+        }
+        WalkUtils.moveAtomically(temp, binary);
+    }
+
+    private static int flush(final ByteArrayOutputStream block, final OutputStream out) throws IOException {
+        final int size = block.size();
+        block.writeTo(out);
+        block.reset();
+        return size;
+    }
+
+    private static void writeVarint(final OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(final ByteBuffer buffer) {
+        long result = 0;
+        for (int shift = 0; ; shift += 7) {
+            final byte b = buffer.get();
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+    }
+
+    private static void writeString(final OutputStream out, final String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[(int) readVarint(buffer)];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
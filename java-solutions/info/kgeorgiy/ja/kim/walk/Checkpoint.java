@@ -0,0 +1,187 @@
+package info.kgeorgiy.ja.kim.walk;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitor;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+// Progress of a walk: the number of completed input lines, the length of the output written for them
+// and, inside the current line, the last file written with the output length after it.
+// Saved atomically at most every INTERVAL, after the output has been flushed.
+final class Checkpoint {
+    private static final long INTERVAL = TimeUnit.SECONDS.toNanos(5);
+
+    private final Path file;
+    private final Path input;
+    private final Path output;
+    private final boolean resumed;
+    private Writer writer;
+    private long saved = System.nanoTime();
+
+    private long lines;
+    private long lineLength;
+    private long length;
+    private String path;
+
+    private Checkpoint(final Path file, final Path input, final Path output, final boolean resumed) {
+        this.file = file;
+        this.input = input;
+        this.output = output;
+        this.resumed = resumed;
+    }
+
+    // Loads the previous checkpoint if resuming, truncating the output to its recorded length.
+    // A parallel walk cannot restart inside a line, so it redoes the whole line.
+    static Checkpoint open(final Path file, final Path input, final Path output, final boolean resume,
+                           final boolean wholeLines) throws IOException {
+        if (!resume || !Files.exists(file) || !Files.exists(output)) {
+            return new Checkpoint(file, input, output, false);
+        }
+        final Properties properties = new Properties();
+        try (final Reader reader = Files.newBufferedReader(file)) {
+            properties.load(reader);
+        }
+        if (!input.toString().equals(properties.getProperty("input"))
+                || !output.toString().equals(properties.getProperty("output"))) {
+            WalkUtils.message("Checkpoint does not match this walk, starting over: " + file,
+                    "input = " + properties.getProperty("input"), "output = " + properties.getProperty("output"));
+            return new Checkpoint(file, input, output, false);
+        }
+
+        final Checkpoint checkpoint = new Checkpoint(file, input, output, true);
+        try {
+            checkpoint.lines = Long.parseLong(properties.getProperty("lines"));
+            checkpoint.lineLength = Long.parseLong(properties.getProperty("line-length"));
+            checkpoint.length = Long.parseLong(properties.getProperty("length"));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid checkpoint: " + file, e);
+        }
+        checkpoint.path = wholeLines ? null : properties.getProperty("path");
+        if (checkpoint.path == null) {
+            checkpoint.length = checkpoint.lineLength;
+        }
+        try (final FileChannel channel = FileChannel.open(output, StandardOpenOption.WRITE)) {
+            channel.truncate(checkpoint.length);
+        }
+        return checkpoint;
+    }
+
+    boolean resumed() {
+        return resumed;
+    }
+
+    void attach(final Writer writer) {
+        this.writer = writer;
+    }
+
+    // Skips input lines completed before the checkpoint.
+    void skip(final BufferedReader reader) throws IOException {
+        for (long i = 0; i < lines; i++) {
+            if (reader.readLine() == null) {
+                break;
+            }
+        }
+    }
+
+    void fileDone(final Path file) {
+        path = file.toString();
+        if (System.nanoTime() - saved >= INTERVAL) {
+            save();
+        }
+    }
+
+    void lineDone() {
+        lines++;
+        path = null;
+        if (System.nanoTime() - saved >= INTERVAL) {
+            save();
+        }
+    }
+
+    // A checkpoint that cannot be saved only makes a resumed walk redo more work, so the walk goes on.
+    void save() {
+        saved = System.nanoTime();
+        try {
+            writer.flush();
+            length = Files.size(output);
+            if (path == null) {
+                lineLength = length;
+            }
+            final Properties properties = new Properties();
+            properties.setProperty("input", input.toString());
+            properties.setProperty("output", output.toString());
+            properties.setProperty("lines", Long.toString(lines));
+            properties.setProperty("line-length", Long.toString(lineLength));
+            properties.setProperty("length", Long.toString(length));
+            if (path != null) {
+                properties.setProperty("path", path);
+            }
+            final Path temp = WalkUtils.temporarySibling(file);
+            try (final Writer checkpoint = Files.newBufferedWriter(temp)) {
+                properties.store(checkpoint, null);
+            }
+            WalkUtils.moveAtomically(temp, file);
+        } catch (IOException e) {
+            WalkUtils.message("Cannot save checkpoint: " + file, e, e.getMessage());
+        }
+    }
+
+    // Reports written files and, when resuming inside this line, skips everything up to the checkpoint path:
+    // directories that do not lead to it were completed before it was written.
+    FileVisitor<Path> visitor(final FileVisitor<Path> visitor) {
+        final Path resumeFrom = path == null ? null : Path.of(path);
+        return new FileVisitor<>() {
+            private boolean skipping = resumeFrom != null;
+
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs)
+                    throws IOException {
+                if (skipping && !resumeFrom.startsWith(dir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return visitor.preVisitDirectory(dir, attrs);
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                if (skipping) {
+                    skipping = !file.equals(resumeFrom);
+                    return FileVisitResult.CONTINUE;
+                }
+                final FileVisitResult result = visitor.visitFile(file, attrs);
+                fileDone(file);
+                return result;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path file, final IOException exc) throws IOException {
+                if (skipping) {
+                    skipping = !file.equals(resumeFrom);
+                    return skipping ? FileVisitResult.CONTINUE : FileVisitResult.TERMINATE;
+                }
+                final FileVisitResult result = visitor.visitFileFailed(file, exc);
+                fileDone(file);
+                return result;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(final Path dir, final IOException exc) throws IOException {
+                if (skipping && resumeFrom.startsWith(dir)) {
+                    WalkUtils.message("Checkpoint path not found, output may miss files: " + resumeFrom,
+                            "directory = " + dir, "");
+                    skipping = false;
+                }
+                return visitor.postVisitDirectory(dir, exc);
+            }
+        };
+    }
+}
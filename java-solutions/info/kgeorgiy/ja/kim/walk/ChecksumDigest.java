@@ -0,0 +1,67 @@
+package info.kgeorgiy.ja.kim.walk;
+
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.zip.Checksum;
+
+// Exposes a java.util.zip checksum through the MessageDigest API, big-endian, truncated to length bytes.
+public final class ChecksumDigest extends MessageDigest {
+    private final Checksum checksum;
+    private final int length;
+
+    public ChecksumDigest(final String algorithm, final Checksum checksum, final int length) {
+        super(algorithm);
+        this.checksum = checksum;
+        this.length = length;
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return length;
+    }
+
+    @Override
+    protected void engineUpdate(final byte input) {
+        checksum.update(input);
+    }
+
+    @Override
+    protected void engineUpdate(final byte[] input, final int offset, final int len) {
+        checksum.update(input, offset, len);
+    }
+
+    @Override
+    protected void engineUpdate(final ByteBuffer input) {
+        checksum.update(input);
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        final byte[] result = new byte[length];
+        finish(result, 0);
+        return result;
+    }
+
+    @Override
+    protected int engineDigest(final byte[] buf, final int offset, final int len) throws DigestException {
+        if (len < length) {
+            throw new DigestException("buffer too short: " + len);
+        }
+        finish(buf, offset);
+        return length;
+    }
+
+    private void finish(final byte[] buf, final int offset) {
+        final long value = checksum.getValue();
+        checksum.reset();
+        for (int i = 0; i < length; i++) {
+            buf[offset + i] = (byte) (value >>> ((length - 1 - i) << 3));
+        }
+    }
+
+    @Override
+    protected void engineReset() {
+        checksum.reset();
+    }
+}
@@ -0,0 +1,81 @@
+package info.kgeorgiy.ja.kim.walk;
+
+import java.io.Writer;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+public enum DigestAlgorithm implements FileHasher {
+    SHA_256("SHA-256", 32),
+    SHA_1("SHA-1", 20),
+    MD5("MD5", 16),
+    CRC32C("CRC32C", 4) {
+        @Override
+        public MessageDigest newDigest() {
+            return new ChecksumDigest(getName(), new java.util.zip.CRC32C(), getLength());
+        }
+    },
+    XXHASH64("XXH64", 8) {
+        @Override
+        public MessageDigest newDigest() {
+            return new XxHash64Digest();
+        }
+    };
+
+    private final String name;
+    private final int length;
+    private final String errorCode;
+
+    DigestAlgorithm(final String name, final int length) {
+        this.name = name;
+        this.length = length;
+        this.errorCode = "0".repeat(length << 1);
+    }
+
+    public static DigestAlgorithm forName(final String name) {
+        return Arrays.stream(values())
+                .filter(algorithm -> algorithm.name.equalsIgnoreCase(name) || algorithm.name().equalsIgnoreCase(name))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown algorithm: " + name + ", expected one of "
+                        + Arrays.stream(values()).map(DigestAlgorithm::getName).collect(Collectors.joining(", "))));
+    }
+
+    public MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(name);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public String hash(final Path file) {
+        return WalkUtils.getHash(file, this);
+    }
+
+    @Override
+    public void writeHash(final Path file, final Writer writer) {
+        WalkUtils.writeDigest(file, writer, this);
+    }
+
+    @Override
+    public void writeHash(final Path file, final BasicFileAttributes attributes, final Writer writer) {
+        WalkUtils.writeDigest(file, writer, this);
+    }
+
+    @Override
+    public String errorCode() {
+        return errorCode;
+    }
+}
@@ -0,0 +1,47 @@
+package info.kgeorgiy.ja.kim.walk;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+// Merkle digest of a directory: children are sorted by name and every child contributes
+// its type, name and the hash written for it, so two trees can be compared top-down.
+// Written with a "dir-<algorithm>:" label, as it is not the digest of any file.
+final class DirectoryDigest {
+    private static final byte FILE = 0;
+    private static final byte DIRECTORY = 1;
+
+    private record Child(String name, boolean directory, String hash) {
+    }
+
+    private final DigestAlgorithm algorithm;
+    private final List<Child> children = new ArrayList<>();
+
+    DirectoryDigest(final DigestAlgorithm algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    static String label(final DigestAlgorithm algorithm) {
+        return "dir-" + algorithm.getName().toLowerCase(Locale.ROOT) + ":";
+    }
+
+    void add(final String name, final boolean directory, final String hash) {
+        children.add(new Child(name, directory, hash));
+    }
+
+    String digest() {
+        children.sort(Comparator.comparing(Child::name));
+        final MessageDigest digest = HashingContext.get().digest(algorithm);
+        for (final Child child : children) {
+            digest.update(child.directory() ? DIRECTORY : FILE);
+            digest.update(child.name().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(child.hash().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+        }
+        return label(algorithm) + WalkUtils.toHex(digest.digest());
+    }
+}
@@ -0,0 +1,160 @@
+package info.kgeorgiy.ja.kim.walk;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Writes groups of identical files separated by empty lines. Files are grouped by size first,
+// then by a digest of their first and last blocks, and only then by a full digest. A file reached
+// through several input lines, or through several hard links, is a candidate only once.
+public final class DuplicateFinder {
+    static final int BLOCK = 1 << 12;
+
+    private final DigestAlgorithm algorithm;
+    private final MessageDigest partial;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BLOCK);
+    private final Map<Long, List<Path>> bySize = new HashMap<>();
+    private final Set<Object> seen = new HashSet<>();
+
+    private DuplicateFinder(final DigestAlgorithm algorithm) {
+        this.algorithm = algorithm;
+        this.partial = algorithm.newDigest();
+    }
+
+    public static void find(final String nameOfInputFile, final String nameOfOutputFile, final boolean recursiveWalk,
+                            final WalkOptions options) {
+        try {
+            final Path inputFile = Path.of(nameOfInputFile);
+            final Path outputFile = Path.of(nameOfOutputFile);
+            final DuplicateFinder finder = new DuplicateFinder(options.algorithm());
+
+            try (final BufferedReader reader = Files.newBufferedReader(inputFile)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    finder.add(line, recursiveWalk);
+                }
+            }
+            final Path parent = outputFile.getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            try (final BufferedWriter writer = Files.newBufferedWriter(outputFile)) {
+                finder.write(writer);
+            }
+        } catch (IOException e) {
+            WalkUtils.message("Cannot find duplicates", e, e.getMessage());
+        } catch (InvalidPathException e) {
+            WalkUtils.message("Invalid path", e, e.getMessage());
+        }
+    }
+
+    private void add(final String name, final boolean recursiveWalk) {
+        try {
+            final Path root = Path.of(name);
+            if (recursiveWalk) {
+                Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                    @Override
+                    public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                        add(file, attrs);
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(final Path file, final IOException exc) {
+                        WalkUtils.message("Cannot visit file: " + file, exc, exc.getMessage());
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } else {
+                add(root, Files.readAttributes(root, BasicFileAttributes.class));
+            }
+        } catch (IOException | InvalidPathException e) {
+            WalkUtils.message("Cannot visit file: " + name, e, e.getMessage());
+        }
+    }
+
+    private void add(final Path file, final BasicFileAttributes attributes) {
+        final Object key = attributes.fileKey() != null ? attributes.fileKey() : file.toAbsolutePath().normalize();
+        if (attributes.isRegularFile() && seen.add(key)) {
+            bySize.computeIfAbsent(attributes.size(), size -> new ArrayList<>()).add(file);
+        }
+    }
+
+    private void write(final BufferedWriter writer) throws IOException {
+        final List<Map.Entry<Long, List<Path>>> candidates = bySize.entrySet().stream()
+                .filter(entry -> entry.getValue().size() > 1)
+                .sorted(Map.Entry.<Long, List<Path>>comparingByKey(Comparator.reverseOrder()))
+                .toList();
+        for (final Map.Entry<Long, List<Path>> entry : candidates) {
+            final long size = entry.getKey();
+            // Small files are read completely by the partial hash, so it is skipped for them.
+            final Iterable<List<Path>> groups = size <= 2 * BLOCK
+                    ? List.of(entry.getValue())
+                    : group(entry.getValue(), file -> partialHash(file, size)).values();
+            for (final List<Path> group : groups) {
+                for (final Map.Entry<String, List<Path>> duplicates : group(group, algorithm).entrySet()) {
+                    for (final Path file : duplicates.getValue()) {
+                        WalkUtils.writeHash(file.toString(), writer, duplicates.getKey());
+                    }
+                    writer.newLine();
+                }
+            }
+        }
+    }
+
+    // Splits files by hash, keeping only groups of at least two files that could be hashed.
+    private Map<String, List<Path>> group(final List<Path> files, final FileHasher hasher) {
+        final Map<String, List<Path>> groups = new LinkedHashMap<>();
+        for (final Path file : files) {
+            final String hash = hasher.hash(file);
+            if (!hash.equals(algorithm.errorCode())) {
+                groups.computeIfAbsent(hash, h -> new ArrayList<>()).add(file);
+            }
+        }
+        groups.values().removeIf(group -> group.size() < 2);
+        return groups;
+    }
+
+    private String partialHash(final Path file, final long size) {
+        partial.reset();
+        RateLimiter.get().file();
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            update(channel, 0);
+            update(channel, size - BLOCK);
+            return WalkUtils.toHex(partial.digest());
+        } catch (IOException e) {
+            WalkUtils.message("Cannot calculate hash", e, e.getMessage());
+            return algorithm.errorCode();
+        }
+    }
+
+    private void update(final FileChannel channel, final long position) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                break;
+            }
+            RateLimiter.get().bytes(read);
+        }
+        partial.update(buffer.flip());
+    }
+}
@@ -0,0 +1,31 @@
+package info.kgeorgiy.ja.kim.walk;
+
+import java.io.Writer;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+@FunctionalInterface
+public interface FileHasher {
+    String hash(Path file);
+
+    default String hash(final Path file, final BasicFileAttributes attributes) {
+        return hash(file);
+    }
+
+    default String errorCode() {
+        return WalkUtils.ERROR_CODE;
+    }
+
+    default void writeHash(final Path file, final Writer writer) {
+        WalkUtils.writeHash(file.toString(), writer, hash(file));
+    }
+
+    default void writeHash(final Path file, final BasicFileAttributes attributes, final Writer writer) {
+        WalkUtils.writeHash(file.toString(), writer, hash(file, attributes));
+    }
+
+    // Prefix of every hash that is not a plain hex digest of the file contents.
+    default String label() {
+        return "";
+    }
+}
@@ -0,0 +1,92 @@
+package info.kgeorgiy.ja.kim.walk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Locale;
+
+// Quick change detection: digests the file size and a fixed number of blocks read with positional reads,
+// the first at the head, the last at the tail and the rest evenly spaced in between, so every file
+// costs the same few reads. Files that fit into the samples are digested whole. Changes outside
+// the sampled blocks are not detected, so the result is written with an "fp-<algorithm>-<samples>:" label.
+public final class FingerprintHasher implements FileHasher {
+    static final int BLOCK_SIZE = HashingContext.BUFFER_SIZE;
+
+    private final DigestAlgorithm algorithm;
+    private final int samples;
+    private final String label;
+    private final String errorCode;
+
+    public FingerprintHasher(final DigestAlgorithm algorithm, final int samples) {
+        if (samples < 2) {
+            throw new IllegalArgumentException("At least head and tail samples are required, found: " + samples);
+        }
+        this.algorithm = algorithm;
+        this.samples = samples;
+        this.label = "fp-" + algorithm.getName().toLowerCase(Locale.ROOT) + "-" + samples + ":";
+        this.errorCode = label + algorithm.errorCode();
+    }
+
+    @Override
+    public String hash(final Path file) {
+        final WalkMetrics metrics = WalkMetrics.get();
+        RateLimiter.get().file();
+        final long opening = System.nanoTime();
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long reading = System.nanoTime();
+            final long size = channel.size();
+            metrics.record(WalkMetrics.Stage.OPEN, reading - opening, file, size);
+            final HashingContext context = HashingContext.get();
+            final MessageDigest digest = context.digest(algorithm);
+            final ByteBuffer buffer = context.buffer();
+            digest.update(buffer.putLong(size).flip());
+            long read = 0;
+            if (size <= (long) samples * BLOCK_SIZE) {
+                read = WalkUtils.updateRead(digest, channel, buffer);
+            } else {
+                // Exactly (size - BLOCK_SIZE) * i / (samples - 1) without overflow, so the last sample ends at EOF.
+                final long span = size - BLOCK_SIZE;
+                final int gaps = samples - 1;
+                for (int i = 0; i < samples; i++) {
+                    read += sample(digest, channel, buffer, span / gaps * i + span % gaps * i / gaps);
+                }
+            }
+            final int length = context.finish(digest);
+            metrics.record(WalkMetrics.Stage.READ, System.nanoTime() - reading, file, read);
+            metrics.file(read);
+            return label + new String(context.hex(), 0, length);
+        } catch (IOException | InvalidPathException e) {
+            WalkUtils.message("Cannot calculate fingerprint", e, e.getMessage());
+            metrics.error();
+            return errorCode;
+        }
+    }
+
+    private static int sample(final MessageDigest digest, final FileChannel channel, final ByteBuffer buffer,
+                              final long position) throws IOException {
+        buffer.clear().limit(BLOCK_SIZE);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        final int read = buffer.position();
+        digest.update(buffer.flip());
+        RateLimiter.get().bytes(read);
+        return read;
+    }
+
+    @Override
+    public String errorCode() {
+        return errorCode;
+    }
+
+    @Override
+    public String label() {
+        return label;
+    }
+}
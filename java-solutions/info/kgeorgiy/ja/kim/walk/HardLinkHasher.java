@@ -0,0 +1,147 @@
+package info.kgeorgiy.ja.kim.walk;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Hashes every inode once per walk: other links to the same file key reuse the digest,
+// or wait for it while the first link is still being hashed. An entry is dropped after
+// all of its links have been seen, so only partially visited link sets are kept.
+// Telling the link count costs an extra attribute read per file, so it is only used with --hard-links.
+public final class HardLinkHasher implements FileHasher {
+    private final FileHasher hasher;
+    private final boolean unix;
+    private final ConcurrentMap<Object, Links> links = new ConcurrentHashMap<>();
+
+    public HardLinkHasher(final FileHasher hasher) {
+        this.hasher = hasher;
+        this.unix = Path.of("").getFileSystem().supportedFileAttributeViews().contains("unix");
+    }
+
+    @Override
+    public String hash(final Path file) {
+        if (unix) {
+            // The link count, file key and type in a single read.
+            final Map<String, Object> attributes = unixAttributes(file);
+            if (attributes == null || !Boolean.TRUE.equals(attributes.get("isRegularFile"))) {
+                return hasher.hash(file);
+            }
+            return hash(file, null, attributes.get("fileKey"), (Integer) attributes.get("nlink"));
+        }
+        final BasicFileAttributes attributes = attributes(file);
+        return attributes == null ? hasher.hash(file) : hash(file, attributes);
+    }
+
+    @Override
+    public String hash(final Path file, final BasicFileAttributes attributes) {
+        return hash(file, attributes, attributes.fileKey(), linkCount(file, attributes));
+    }
+
+    // Attributes are passed on to the hasher when known.
+    private String hash(final Path file, final BasicFileAttributes attributes, final Object key, final int count) {
+        if (count < 2 || key == null) {
+            return hashFile(file, attributes);
+        }
+
+        final Links created = new Links(count);
+        final Links existing = links.putIfAbsent(key, created);
+        if (existing != null) {
+            if (existing.remaining.decrementAndGet() <= 0) {
+                links.remove(key, existing);
+            }
+            return existing.digest.join();
+        }
+
+        try {
+            final String hash = hashFile(file, attributes);
+            if (hash.equals(hasher.errorCode())) {
+                // Another link may still be readable, let it try again.
+                links.remove(key, created);
+            }
+            created.digest.complete(hash);
+            return hash;
+        } catch (RuntimeException | Error e) {
+            links.remove(key, created);
+            created.digest.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private String hashFile(final Path file, final BasicFileAttributes attributes) {
+        return attributes == null ? hasher.hash(file) : hasher.hash(file, attributes);
+    }
+
+    @Override
+    public void writeHash(final Path file, final Writer writer) {
+        WalkUtils.writeHash(file.toString(), writer, hash(file));
+    }
+
+    @Override
+    public void writeHash(final Path file, final BasicFileAttributes attributes, final Writer writer) {
+        final int count = linkCount(file, attributes);
+        if (count < 2) {
+            hasher.writeHash(file, attributes, writer);
+        } else {
+            WalkUtils.writeHash(file.toString(), writer, hash(file, attributes, attributes.fileKey(), count));
+        }
+    }
+
+    private static Map<String, Object> unixAttributes(final Path file) {
+        try {
+            return Files.readAttributes(file, "unix:nlink,fileKey,isRegularFile");
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static BasicFileAttributes attributes(final Path file) {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException | InvalidPathException e) {
+            return null;
+        }
+    }
+
+    // Link count of a regular file, Integer.MAX_VALUE if it cannot be told, 0 if links are not tracked.
+    private int linkCount(final Path file, final BasicFileAttributes attributes) {
+        if (!attributes.isRegularFile() || attributes.fileKey() == null) {
+            return 0;
+        }
+        if (!unix) {
+            return Integer.MAX_VALUE;
+        }
+        try {
+            return (Integer) Files.getAttribute(file, "unix:nlink", LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    @Override
+    public String errorCode() {
+        return hasher.errorCode();
+    }
+
+    @Override
+    public String label() {
+        return hasher.label();
+    }
+
+    private static final class Links {
+        private final CompletableFuture<String> digest = new CompletableFuture<>();
+        private final AtomicInteger remaining;
+
+        private Links(final int count) {
+            this.remaining = new AtomicInteger(count - 1);
+        }
+    }
+}
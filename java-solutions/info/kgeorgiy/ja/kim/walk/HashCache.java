@@ -0,0 +1,172 @@
+package info.kgeorgiy.ja.kim.walk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+public final class HashCache {
+    private static final int MAGIC = 0x57484331;
+
+    private final Path file;
+    private final String algorithm;
+    private final Map<String, Entry> entries;
+    private final Set<String> touched = ConcurrentHashMap.newKeySet();
+
+    private HashCache(final Path file, final String algorithm, final Map<String, Entry> entries) {
+        this.file = file;
+        this.algorithm = algorithm;
+        this.entries = entries;
+    }
+
+    public static HashCache load(final Path file, final String algorithm) {
+        final Map<String, Entry> entries = new ConcurrentHashMap<>();
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a hash cache file");
+            }
+            if (!in.readUTF().equals(algorithm)) {
+                throw new IOException("cache was built with another digest algorithm");
+            }
+            for (int count = in.readInt(); count > 0; count--) {
+                final String path = in.readUTF();
+                final long size = in.readLong();
+                final long modified = in.readLong();
+                final String fileKey = in.readUTF();
+                final byte[] digest = new byte[in.readUnsignedByte()];
+                in.readFully(digest);
+                entries.put(path, new Entry(size, modified, fileKey, digest));
+            }
+        } catch (NoSuchFileException e) {
+            // Fresh cache.
+        } catch (IOException e) {
+            WalkUtils.message("Cannot read hash cache: " + file, e, "starting with an empty cache.");
+            entries.clear();
+        }
+        return new HashCache(file, algorithm, entries);
+    }
+
+    public FileHasher wrap(final FileHasher hasher) {
+        return new FileHasher() {
+            @Override
+            public String hash(final Path file) {
+                try {
+                    return hash(file, Files.readAttributes(file, BasicFileAttributes.class));
+                } catch (IOException | InvalidPathException e) {
+                    return hasher.hash(file);
+                }
+            }
+
+            @Override
+            public String hash(final Path file, final BasicFileAttributes attributes) {
+                return cached(file, attributes, hasher);
+            }
+
+            @Override
+            public String errorCode() {
+                return hasher.errorCode();
+            }
+
+            @Override
+            public String label() {
+                return hasher.label();
+            }
+        };
+    }
+
+    private String cached(final Path file, final BasicFileAttributes attributes, final FileHasher hasher) {
+        if (!attributes.isRegularFile()) {
+            return hasher.hash(file, attributes);
+        }
+        final String key = file.toAbsolutePath().normalize().toString();
+        final Entry actual = new Entry(attributes);
+        final Entry entry = entries.get(key);
+        touched.add(key);
+        if (entry != null && entry.matches(actual)) {
+            return hasher.label() + WalkUtils.toHex(entry.digest);
+        }
+
+        final String hash = hasher.hash(file, attributes);
+        if (hash.equals(hasher.errorCode())) {
+            entries.remove(key);
+        } else {
+            entries.put(key, actual.withDigest(WalkUtils.fromHex(hash.substring(hasher.label().length()))));
+        }
+        return hash;
+    }
+
+    public void save() {
+        entries.keySet().removeIf(path -> !touched.contains(path) && !exists(path));
+        final Path temp = WalkUtils.temporarySibling(file);
+        try {
+            try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                final Map<String, Entry> snapshot = Map.copyOf(entries);
+                out.writeInt(MAGIC);
+                out.writeUTF(algorithm);
+                out.writeInt(snapshot.size());
+                for (final Map.Entry<String, Entry> e : snapshot.entrySet()) {
+                    final Entry entry = e.getValue();
+                    out.writeUTF(e.getKey());
+                    out.writeLong(entry.size);
+                    out.writeLong(entry.modified);
+                    out.writeUTF(entry.fileKey);
+                    out.writeByte(entry.digest.length);
+                    out.write(entry.digest);
+                }
+            }
+            WalkUtils.moveAtomically(temp, file);
+        } catch (IOException e) {
+            WalkUtils.message("Cannot write hash cache: " + file, e, e.getMessage());
+        }
+    }
+
+    private static boolean exists(final String path) {
+        try {
+            return Files.isRegularFile(Path.of(path));
+        } catch (InvalidPathException e) {
+            return false;
+        }
+    }
+
+    private static final class Entry {
+        private final long size;
+        private final long modified;
+        private final String fileKey;
+        private final byte[] digest;
+
+        private Entry(final long size, final long modified, final String fileKey, final byte[] digest) {
+            this.size = size;
+            this.modified = modified;
+            this.fileKey = fileKey;
+            this.digest = digest;
+        }
+
+        private Entry(final BasicFileAttributes attributes) {
+            this(
+                    attributes.size(),
+                    attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                    Objects.toString(attributes.fileKey(), ""),
+                    null
+            );
+        }
+
+        private Entry withDigest(final byte[] digest) {
+            return new Entry(size, modified, fileKey, digest);
+        }
+
+        private boolean matches(final Entry other) {
+            return size == other.size && modified == other.modified && fileKey.equals(other.fileKey);
+        }
+    }
+}
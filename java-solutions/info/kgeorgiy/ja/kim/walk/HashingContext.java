@@ -0,0 +1,59 @@
+package info.kgeorgiy.ja.kim.walk;
+
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+
+// Per-thread hashing state, reused for every file hashed by the thread.
+final class HashingContext {
+    static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAX_DIGEST_LENGTH = 64;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final ThreadLocal<HashingContext> CONTEXT = ThreadLocal.withInitial(HashingContext::new);
+
+    private final MessageDigest[] digests = new MessageDigest[DigestAlgorithm.values().length];
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final byte[] digest = new byte[MAX_DIGEST_LENGTH];
+    private final char[] hex = new char[MAX_DIGEST_LENGTH << 1];
+
+    private HashingContext() {
+    }
+
+    static HashingContext get() {
+        return CONTEXT.get();
+    }
+
+    MessageDigest digest(final DigestAlgorithm algorithm) {
+        MessageDigest result = digests[algorithm.ordinal()];
+        if (result == null) {
+            result = algorithm.newDigest();
+            digests[algorithm.ordinal()] = result;
+        } else {
+            result.reset();
+        }
+        return result;
+    }
+
+    ByteBuffer buffer() {
+        return buffer.clear();
+    }
+
+    // Completes the digest and writes it as hex into hex(), returns the number of chars.
+    int finish(final MessageDigest messageDigest) {
+        final int length;
+        try {
+            length = messageDigest.digest(digest, 0, digest.length);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+        for (int i = 0; i < length; i++) {
+            hex[i << 1] = HEX_DIGITS[(digest[i] >> 4) & 0xF];
+            hex[(i << 1) + 1] = HEX_DIGITS[digest[i] & 0xF];
+        }
+        return length << 1;
+    }
+
+    char[] hex() {
+        return hex;
+    }
+}
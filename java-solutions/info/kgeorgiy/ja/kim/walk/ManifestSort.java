@@ -0,0 +1,164 @@
+package info.kgeorgiy.ja.kim.walk;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+// External merge sort of walk outputs by path: runs of at most maxLines entries are sorted in memory
+// and spilled to temporary files, then merged FAN_IN at a time. Temporary files live until close.
+final class ManifestSort implements AutoCloseable {
+    private static final int FAN_IN = 64;
+    static final Comparator<Entry> BY_PATH = Comparator.comparing(Entry::path);
+
+    private final int maxLines;
+    private final Path temp;
+    private final List<Path> temporary = new ArrayList<>();
+
+    record Entry(String hash, String path) {
+        static Entry parse(final String line) {
+            final int space = line.indexOf(' ');
+            return space < 0 ? null : new Entry(line.substring(0, space), line.substring(space + 1));
+        }
+
+        void write(final Writer writer) throws IOException {
+            writer.write(hash);
+            writer.write(' ');
+            writer.write(path);
+            writer.write('\n');
+        }
+    }
+
+    ManifestSort(final int maxLines, final Path temp) {
+        this.maxLines = maxLines;
+        this.temp = temp;
+    }
+
+    static Entry next(final BufferedReader reader) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isBlank()) {
+                // Blanked out by --watch until the manifest is compacted.
+                continue;
+            }
+            final Entry entry = Entry.parse(line);
+            if (entry != null) {
+                return entry;
+            }
+            WalkUtils.message("Skipped malformed manifest line", "line = " + line, "");
+        }
+        return null;
+    }
+
+    // Returns the manifest itself if it is already sorted by path, or a sorted temporary copy.
+    Path sorted(final Path manifest) throws IOException {
+        try (final BufferedReader reader = Files.newBufferedReader(manifest)) {
+            Entry previous = null;
+            Entry entry;
+            while ((entry = next(reader)) != null) {
+                if (previous != null && BY_PATH.compare(previous, entry) > 0) {
+                    return sort(manifest);
+                }
+                previous = entry;
+            }
+        }
+        return manifest;
+    }
+
+    private Path sort(final Path manifest) throws IOException {
+        List<Path> runs = new ArrayList<>();
+        try (final BufferedReader reader = Files.newBufferedReader(manifest)) {
+            final List<Entry> run = new ArrayList<>();
+            Entry entry;
+            while ((entry = next(reader)) != null) {
+                run.add(entry);
+                if (run.size() == maxLines) {
+                    runs.add(write(run));
+                    run.clear();
+                }
+            }
+            if (!run.isEmpty() || runs.isEmpty()) {
+                runs.add(write(run));
+            }
+        }
+        while (runs.size() > 1) {
+            final List<Path> merged = new ArrayList<>();
+            for (int i = 0; i < runs.size(); i += FAN_IN) {
+                merged.add(merge(runs.subList(i, Math.min(runs.size(), i + FAN_IN))));
+            }
+            for (final Path run : runs) {
+                delete(run);
+            }
+            runs = merged;
+        }
+        return runs.get(0);
+    }
+
+    private Path write(final List<Entry> run) throws IOException {
+        run.sort(BY_PATH);
+        final Path file = createTemporary();
+        try (final BufferedWriter writer = Files.newBufferedWriter(file)) {
+            for (final Entry entry : run) {
+                entry.write(writer);
+            }
+        }
+        return file;
+    }
+
+    private record Head(Entry entry, BufferedReader reader) {
+    }
+
+    private Path merge(final List<Path> runs) throws IOException {
+        final Path file = createTemporary();
+        final List<BufferedReader> readers = new ArrayList<>(runs.size());
+        try (final BufferedWriter writer = Files.newBufferedWriter(file)) {
+            final PriorityQueue<Head> heads =
+                    new PriorityQueue<>(runs.size(), Comparator.comparing(Head::entry, BY_PATH));
+            for (final Path run : runs) {
+                final BufferedReader reader = Files.newBufferedReader(run);
+                readers.add(reader);
+                final Entry entry = next(reader);
+                if (entry != null) {
+                    heads.add(new Head(entry, reader));
+                }
+            }
+            while (!heads.isEmpty()) {
+                final Head head = heads.poll();
+                head.entry().write(writer);
+                final Entry entry = next(head.reader());
+                if (entry != null) {
+                    heads.add(new Head(entry, head.reader()));
+                }
+            }
+        } finally {
+            for (final BufferedReader reader : readers) {
+                reader.close();
+            }
+        }
+        return file;
+    }
+
+    private Path createTemporary() throws IOException {
+        final Path file = Files.createTempFile(temp, "walk-sort", ".run");
+        temporary.add(file);
+        return file;
+    }
+
+    private void delete(final Path file) throws IOException {
+        Files.deleteIfExists(file);
+        temporary.remove(file);
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (final Path file : List.copyOf(temporary)) {
+            delete(file);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package info.kgeorgiy.ja.kim.walk;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+// Records the time spent in every write to the output as the WRITE stage.
+public final class MeteredWriter extends FilterWriter {
+    private final WalkMetrics metrics;
+
+    public MeteredWriter(final Writer out, final WalkMetrics metrics) {
+        super(out);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void write(final int c) throws IOException {
+        final long start = System.nanoTime();
+        out.write(c);
+        metrics.record(WalkMetrics.Stage.WRITE, System.nanoTime() - start);
+    }
+
+    @Override
+    public void write(final char[] cbuf, final int off, final int len) throws IOException {
+        final long start = System.nanoTime();
+        out.write(cbuf, off, len);
+        metrics.record(WalkMetrics.Stage.WRITE, System.nanoTime() - start);
+    }
+
+    @Override
+    public void write(final String str, final int off, final int len) throws IOException {
+        final long start = System.nanoTime();
+        out.write(str, off, len);
+        metrics.record(WalkMetrics.Stage.WRITE, System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,354 @@
+package info.kgeorgiy.ja.kim.walk;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveTask;
+
+// Visits the same entries as Files.walkFileTree with Sha256FileVisitor, but every subdirectory
+// and file is a fork/join task. Every task publishes its own lines as soon as they are ready, and
+// the writing thread writes them in directory stream order while the tree is still walked. A directory
+// keeps at most FORK_WINDOW_PER_THREAD tasks per pool thread in flight, so memory is bounded by the
+// depth of the tree rather than by its size, as long as writing keeps up. As in the sequential walk, the output
+// stops after the first entry that cannot be visited and the rest of the tree is skipped; a directory
+// that fails while being listed ends the output with an error line for the walked root.
+public final class ParallelFileTreeWalker {
+    private static final int FORK_WINDOW_PER_THREAD = 4;
+    private static final Lines EMPTY = new Lines("", false);
+
+    private final FileHasher hasher;
+    private final ArchiveHasher archives;
+    private final DigestAlgorithm directoryAlgorithm;
+    private final Schedule schedule;
+
+    // Own lines of an entry; the output of the walk ends after the last ones.
+    private record Lines(String text, boolean last) {
+    }
+
+    // State shared by the outputs of a single walked root.
+    private static final class Root {
+        private final String name;
+        private volatile boolean stopped;
+
+        private Root(final String name) {
+            this.name = name;
+        }
+    }
+
+    // Output of an entry: the outputs of its children in directory stream order, then its own lines.
+    public static final class Output {
+        // Marks the end of the children.
+        private static final Output END = new Output(null);
+
+        private final Root root;
+        private final BlockingQueue<Output> children = new LinkedBlockingQueue<>();
+        private final CompletableFuture<Lines> lines = new CompletableFuture<>();
+
+        private Output(final Root root) {
+            this.root = root;
+        }
+
+        // Output of a single hashed input line.
+        public static Output of(final CompletableFuture<String> text) {
+            final Output output = new Output(new Root(null));
+            output.children.add(END);
+            text.whenComplete((value, e) -> {
+                if (e == null) {
+                    output.lines.complete(new Lines(value, false));
+                } else {
+                    output.lines.completeExceptionally(e);
+                }
+            });
+            return output;
+        }
+
+        // Writes the lines as they become ready; once it returns, the rest of the walk is skipped.
+        public void writeTo(final Writer writer) throws IOException {
+            boolean proceed = false;
+            try {
+                proceed = write(writer);
+            } finally {
+                if (!proceed) {
+                    root.stopped = true;
+                }
+            }
+        }
+
+        private boolean write(final Writer writer) throws IOException {
+            try {
+                Output child;
+                while ((child = children.take()) != END) {
+                    if (!child.write(writer)) {
+                        return false;
+                    }
+                }
+                final Lines own = lines.get();
+                writer.write(own.text());
+                return !own.last();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Walk was interrupted");
+            } catch (ExecutionException e) {
+                throw new IOException("Cannot walk file tree", e.getCause());
+            }
+        }
+
+        private void complete(final Lines own) {
+            children.add(END);
+            lines.complete(own);
+        }
+
+        private void fail(final Throwable e) {
+            children.add(END);
+            lines.completeExceptionally(e);
+        }
+    }
+
+    public ParallelFileTreeWalker(final FileHasher hasher) {
+        this(hasher, null, null, Schedule.INPUT);
+    }
+
+    // Children of every directory are started in the schedule order and written in directory stream order.
+    public ParallelFileTreeWalker(final FileHasher hasher, final ArchiveHasher archives,
+                                  final DigestAlgorithm directoryAlgorithm, final Schedule schedule) {
+        this.hasher = hasher;
+        this.archives = archives;
+        this.directoryAlgorithm = directoryAlgorithm;
+        this.schedule = schedule;
+    }
+
+    // Starts walking the tree in the pool and returns its output to be written by the caller.
+    public Output start(final String name, final ForkJoinPool pool) {
+        final Output output = new Output(new Root(name));
+        final Path root;
+        try {
+            root = Path.of(name);
+        } catch (InvalidPathException e) {
+            WalkUtils.message("Invalid file path " + name, e, e.getMessage());
+            output.complete(new Lines(line(name, hasher.errorCode()), false));
+            return output;
+        }
+        pool.execute(() -> task(root, attributes(root), output).invoke());
+        return output;
+    }
+
+    // Same as start(name, pool) for attributes of the root already read by attributes(root).
+    public Output start(final String name, final Path root, final BasicFileAttributes attributes,
+                        final ForkJoinPool pool) {
+        final Output output = new Output(new Root(name));
+        pool.execute(() -> task(root, attributes, output).invoke());
+        return output;
+    }
+
+    // Attributes of an entry as the walk sees them, or null if they cannot be read.
+    public static BasicFileAttributes attributes(final Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            WalkMetrics.get().error();
+            return null;
+        }
+    }
+
+    private EntryTask task(final Path path, final BasicFileAttributes attributes, final Output output) {
+        if (attributes == null) {
+            return new ErrorTask(path, output);
+        }
+        return attributes.isDirectory() ? new DirectoryTask(path, output) : new FileTask(path, attributes, output);
+    }
+
+    private static String line(final String name, final String hash) {
+        final StringWriter writer = new StringWriter();
+        WalkUtils.writeHash(name, writer, hash);
+        return writer.toString();
+    }
+
+    // Returns the hash of the entry for the directory digest, or null if the walk was stopped.
+    private abstract static class EntryTask extends RecursiveTask<String> {
+        private static final long serialVersionUID = 1L;
+
+        protected final Path path;
+        // Dropped once the task starts, so that written lines are not kept by the finished task.
+        private Output output;
+
+        private EntryTask(final Path path, final Output output) {
+            this.path = path;
+            this.output = output;
+        }
+
+        @Override
+        protected final String compute() {
+            final Output target = output;
+            output = null;
+            try {
+                if (target.root.stopped) {
+                    target.complete(EMPTY);
+                    return null;
+                }
+                return visit(target);
+            } catch (RuntimeException | Error e) {
+                target.fail(e);
+                throw e;
+            }
+        }
+
+        protected abstract String visit(Output output);
+    }
+
+    private final class DirectoryTask extends EntryTask {
+        private static final long serialVersionUID = 1L;
+
+        private DirectoryTask(final Path directory, final Output output) {
+            super(directory, output);
+        }
+
+        @Override
+        protected String visit(final Output output) {
+            final long start = System.nanoTime();
+            final DirectoryStream<Path> stream;
+            try {
+                stream = Files.newDirectoryStream(path);
+            } catch (IOException e) {
+                WalkUtils.message("Cannot walk directory: " + path, e, e.getMessage());
+                WalkMetrics.get().error();
+                output.complete(new Lines(line(path.toString(), hasher.errorCode()), true));
+                return hasher.errorCode();
+            }
+
+            final int window = getPool().getParallelism() * FORK_WINDOW_PER_THREAD;
+            // Children are started in the schedule order within a batch, half of the window keeps the next one busy
+            final int batch = schedule == Schedule.INPUT ? 1 : Math.max(1, window / 2);
+            final List<Path> paths = new ArrayList<>(batch);
+            final List<BasicFileAttributes> attributes = new ArrayList<>(batch);
+            final List<EntryTask> tasks = new ArrayList<>(batch);
+            final Deque<EntryTask> pending = new ArrayDeque<>(window + batch);
+            final DirectoryDigest digest = directoryAlgorithm == null ? null : new DirectoryDigest(directoryAlgorithm);
+            boolean failed = false;
+            try (stream) {
+                for (final Path child : stream) {
+                    if (output.root.stopped) {
+                        break;
+                    }
+                    final BasicFileAttributes childAttributes = attributes(child);
+                    final Output childOutput = new Output(output.root);
+                    paths.add(child);
+                    attributes.add(childAttributes);
+                    tasks.add(task(child, childAttributes, childOutput));
+                    output.children.add(childOutput);
+                    if (tasks.size() == batch) {
+                        fork(paths, attributes, tasks, pending);
+                        while (pending.size() > window) {
+                            join(pending.poll(), digest);
+                        }
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                WalkUtils.message("Cannot walk directory: " + path, e, e.getMessage());
+                WalkMetrics.get().error();
+                failed = true;
+            }
+            WalkMetrics.get().record(WalkMetrics.Stage.ENUMERATE, System.nanoTime() - start, path, 0);
+            fork(paths, attributes, tasks, pending);
+            output.children.add(Output.END);
+            while (!pending.isEmpty()) {
+                join(pending.poll(), digest);
+            }
+
+            if (failed) {
+                // Files.walkFileTree fails as a whole, which is reported for the walked root.
+                output.lines.complete(new Lines(line(output.root.name, hasher.errorCode()), true));
+                return hasher.errorCode();
+            }
+            if (digest == null || output.root.stopped) {
+                output.lines.complete(EMPTY);
+                return null;
+            }
+            final String hash = digest.digest();
+            output.lines.complete(new Lines(line(path.toString(), hash), false));
+            return hash;
+        }
+
+        // Forks a batch of children in the schedule order and appends them to pending in directory stream order.
+        private void fork(final List<Path> paths, final List<BasicFileAttributes> attributes,
+                          final List<EntryTask> tasks, final Deque<EntryTask> pending) {
+            if (schedule == Schedule.INPUT) {
+                tasks.forEach(EntryTask::fork);
+            } else {
+                // Forked tasks are taken by thieves from the oldest end, so they are started in fork order.
+                for (final int i : schedule.order(paths, attributes)) {
+                    tasks.get(i).fork();
+                }
+            }
+            pending.addAll(tasks);
+            paths.clear();
+            attributes.clear();
+            tasks.clear();
+        }
+
+        private static void join(final EntryTask task, final DirectoryDigest digest) {
+            final String hash = task.join();
+            if (digest != null && hash != null) {
+                digest.add(task.path.getFileName().toString(), task instanceof DirectoryTask, hash);
+            }
+        }
+    }
+
+    private final class FileTask extends EntryTask {
+        private static final long serialVersionUID = 1L;
+
+        private final BasicFileAttributes attributes;
+
+        private FileTask(final Path file, final BasicFileAttributes attributes, final Output output) {
+            super(file, output);
+            this.attributes = attributes;
+        }
+
+        @Override
+        protected String visit(final Output output) {
+            final StringWriter writer = new StringWriter();
+            String hash = null;
+            if (directoryAlgorithm == null) {
+                WalkUtils.writeHash(path, attributes, writer, hasher);
+            } else {
+                hash = hasher.hash(path, attributes);
+                WalkUtils.writeHash(path.toString(), writer, hash);
+            }
+            if (archives != null && attributes.isRegularFile()) {
+                archives.writeEntries(path, writer);
+            }
+            output.complete(new Lines(writer.toString(), false));
+            return hash;
+        }
+    }
+
+    private final class ErrorTask extends EntryTask {
+        private static final long serialVersionUID = 1L;
+
+        private ErrorTask(final Path file, final Output output) {
+            super(file, output);
+        }
+
+        @Override
+        protected String visit(final Output output) {
+            output.complete(new Lines(line(path.toString(), hasher.errorCode()), true));
+            return hasher.errorCode();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package info.kgeorgiy.ja.kim.walk;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Process-wide limits on bytes read and files opened per second, adjustable at runtime as an MXBean
+// once registered with --jmx.
+// A limit of zero means unlimited and costs a single volatile read per call.
+public final class RateLimiter implements RateLimiterMXBean {
+    public static final String OBJECT_NAME = "info.kgeorgiy.ja.kim.walk:type=RateLimiter";
+    private static final RateLimiter INSTANCE = new RateLimiter();
+    private static boolean registered;
+
+    private final TokenBucket bytes = new TokenBucket();
+    private final TokenBucket files = new TokenBucket();
+    private final LongAdder throttled = new LongAdder();
+
+    private RateLimiter() {
+    }
+
+    public static synchronized void register() {
+        if (registered) {
+            return;
+        }
+        registered = true;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        } catch (JMException | SecurityException e) {
+            WalkUtils.message("Cannot register rate limiter MBean", e, e.getMessage());
+        }
+    }
+
+    public static RateLimiter get() {
+        return INSTANCE;
+    }
+
+    public boolean limitsBytes() {
+        return bytes.rate != 0;
+    }
+
+    // Blocks until the bytes that were just read fit into the limit.
+    public void bytes(final long count) {
+        throttle(bytes.take(count));
+    }
+
+    // Blocks until one more file may be opened.
+    public void file() {
+        throttle(files.take(1));
+    }
+
+    private void throttle(final long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        throttled.add(nanos);
+        final long deadline = System.nanoTime() + nanos;
+        long left = nanos;
+        while (left > 0 && !Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(this, left);
+            left = deadline - System.nanoTime();
+        }
+    }
+
+    @Override
+    public long getBytesPerSecond() {
+        return bytes.rate;
+    }
+
+    @Override
+    public void setBytesPerSecond(final long bytesPerSecond) {
+        bytes.setRate(bytesPerSecond);
+    }
+
+    @Override
+    public long getFilesPerSecond() {
+        return files.rate;
+    }
+
+    @Override
+    public void setFilesPerSecond(final long filesPerSecond) {
+        files.setRate(filesPerSecond);
+    }
+
+    @Override
+    public long getThrottledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttled.sum());
+    }
+
+    // Holds up to one second of tokens. Taking more than available goes into debt,
+    // which the caller waits out, so large reads are throttled as precisely as small ones.
+    private static final class TokenBucket {
+        private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+        private volatile long rate;
+        private double tokens;
+        private long refilled = System.nanoTime();
+
+        synchronized void setRate(final long rate) {
+            if (rate < 0) {
+                throw new IllegalArgumentException("Rate must not be negative: " + rate);
+            }
+            refill();
+            this.rate = rate;
+            tokens = Math.min(tokens, rate);
+        }
+
+        // Returns the time to wait before the tokens are available.
+        long take(final long count) {
+            if (rate == 0) {
+                return 0;
+            }
+            synchronized (this) {
+                if (rate == 0) {
+                    return 0;
+                }
+                refill();
+                tokens -= count;
+                return tokens >= 0 ? 0 : (long) (-tokens * SECOND / rate);
+            }
+        }
+
+        private void refill() {
+            final long now = System.nanoTime();
+            if (rate != 0) {
+                tokens = Math.min(rate, tokens + (double) (now - refilled) * rate / SECOND);
+            }
+            refilled = now;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package info.kgeorgiy.ja.kim.walk;
+
+public interface RateLimiterMXBean {
+    long getBytesPerSecond();
+
+    void setBytesPerSecond(long bytesPerSecond);
+
+    long getFilesPerSecond();
+
+    void setFilesPerSecond(long filesPerSecond);
+
+    long getThrottledMillis();
+}
@@ -0,0 +1,74 @@
+package info.kgeorgiy.ja.kim.walk;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.IntStream;
+
+// Order in which a parallel walk starts hashing the files of a batch; the output keeps the input order.
+// LOCALITY groups files by directory and orders them by inode to approximate the on-disk layout,
+// LARGEST starts big files (and directories) first so that no straggler is left at the end.
+// Unreadable entries go first in every order, as they finish at once.
+public enum Schedule {
+    INPUT, LOCALITY, LARGEST;
+
+    public static Schedule forName(final String name) {
+        try {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown schedule: " + name + ", expected one of "
+                    + Arrays.toString(values()).toLowerCase(Locale.ROOT));
+        }
+    }
+
+    // Returns indices of the paths in the order they should be started.
+    public int[] order(final List<Path> paths, final List<BasicFileAttributes> attributes) {
+        final IntStream indices = IntStream.range(0, paths.size());
+        return switch (this) {
+            case INPUT -> indices.toArray();
+            case LOCALITY -> {
+                final long[] inodes = new long[paths.size()];
+                Arrays.setAll(inodes, i -> attributes.get(i) == null ? -1 : inode(attributes.get(i)));
+                yield sorted(indices, Comparator
+                        .<Integer, Boolean>comparing(i -> attributes.get(i) != null)
+                        .thenComparing(i -> String.valueOf(paths.get(i).getParent()))
+                        .thenComparingLong(i -> inodes[i]));
+            }
+            case LARGEST -> sorted(indices, Comparator.<Integer>comparingLong(i -> size(attributes.get(i))).reversed());
+        };
+    }
+
+    private static int[] sorted(final IntStream indices, final Comparator<Integer> comparator) {
+        return indices.boxed().sorted(comparator).mapToInt(Integer::intValue).toArray();
+    }
+
+    private static long size(final BasicFileAttributes attributes) {
+        if (attributes == null) {
+            return Long.MAX_VALUE;
+        }
+        return attributes.isDirectory() ? Long.MAX_VALUE - 1 : attributes.size();
+    }
+
+    // Read from the file key, which has no accessor, so that ordering costs no second stat.
+    // On unix its string is "(dev=<hex>,ino=<decimal>)"; any other key orders as inode zero.
+    private static long inode(final BasicFileAttributes attributes) {
+        final Object key = attributes.fileKey();
+        if (key == null) {
+            return 0;
+        }
+        final String text = key.toString();
+        final int start = text.indexOf("ino=");
+        final int end = text.indexOf(')', start);
+        if (start < 0 || end < 0) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(text, start + 4, end, 10);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
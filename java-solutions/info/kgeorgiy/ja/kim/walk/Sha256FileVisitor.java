@@ -1,29 +1,103 @@
 package info.kgeorgiy.ja.kim.walk;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Deque;
 
 public class Sha256FileVisitor extends SimpleFileVisitor<Path> {
-    private final BufferedWriter bufferedWriter;
+    private final Writer writer;
+    private final FileHasher hasher;
+    private final ArchiveHasher archives;
+    private final DigestAlgorithm directoryAlgorithm;
+    private final Deque<DirectoryDigest> directories = new ArrayDeque<>();
+    private final WalkMetrics metrics = WalkMetrics.get();
+    // Time between callbacks is spent by the walker listing directories and reading attributes.
+    private long returned = System.nanoTime();
 
-    public Sha256FileVisitor(final BufferedWriter bufferedWriter) {
-        this.bufferedWriter = bufferedWriter;
+    public Sha256FileVisitor(final Writer writer) {
+        this(writer, DigestAlgorithm.SHA_256);
+    }
+
+    public Sha256FileVisitor(final Writer writer, final FileHasher hasher) {
+        this(writer, hasher, null);
+    }
+
+    public Sha256FileVisitor(final Writer writer, final FileHasher hasher, final ArchiveHasher archives) {
+        this(writer, hasher, archives, null);
+    }
+
+    // Directory digests are written after the contents of each directory when directoryAlgorithm is set.
+    public Sha256FileVisitor(final Writer writer, final FileHasher hasher, final ArchiveHasher archives,
+                             final DigestAlgorithm directoryAlgorithm) {
+        this.writer = writer;
+        this.hasher = hasher;
+        this.archives = archives;
+        this.directoryAlgorithm = directoryAlgorithm;
+    }
+
+    private void child(final Path path, final boolean directory, final String hash) {
+        if (!directories.isEmpty()) {
+            directories.peek().add(path.getFileName().toString(), directory, hash);
+        }
+    }
+
+    private void enumerated(final Path path) {
+        metrics.record(WalkMetrics.Stage.ENUMERATE, System.nanoTime() - returned, path, 0);
+    }
+
+    private FileVisitResult returning(final FileVisitResult result) {
+        returned = System.nanoTime();
+        return result;
+    }
+
+    @Override
+    public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) throws IOException {
+        enumerated(dir);
+        if (directoryAlgorithm != null) {
+            directories.push(new DirectoryDigest(directoryAlgorithm));
+        }
+        return returning(super.preVisitDirectory(dir, attrs));
     }
 
     @Override
     public FileVisitResult visitFile(final Path file, final BasicFileAttributes basicFileAttributes) {
-        WalkUtils.writeHash(file, bufferedWriter);
-        return FileVisitResult.CONTINUE;
+        enumerated(file);
+        if (directoryAlgorithm == null) {
+            WalkUtils.writeHash(file, basicFileAttributes, writer, hasher);
+        } else {
+            final String hash = hasher.hash(file, basicFileAttributes);
+            WalkUtils.writeHash(file.toString(), writer, hash);
+            child(file, false, hash);
+        }
+        if (archives != null && basicFileAttributes.isRegularFile()) {
+            archives.writeEntries(file, writer);
+        }
+        return returning(FileVisitResult.CONTINUE);
     }
 
     @Override
     public FileVisitResult visitFileFailed(final Path file, final IOException exc) {
-        WalkUtils.writeHash(file.toString(), bufferedWriter, WalkUtils.ERROR_CODE);
-        return FileVisitResult.TERMINATE;
+        enumerated(file);
+        metrics.error();
+        WalkUtils.writeHash(file.toString(), writer, hasher.errorCode());
+        return returning(FileVisitResult.TERMINATE);
+    }
+
+    @Override
+    public FileVisitResult postVisitDirectory(final Path dir, final IOException exc) throws IOException {
+        enumerated(dir);
+        final FileVisitResult result = super.postVisitDirectory(dir, exc);
+        if (directoryAlgorithm != null) {
+            final String hash = directories.pop().digest();
+            WalkUtils.writeHash(dir.toString(), writer, hash);
+            child(dir, true, hash);
+        }
+        return returning(result);
     }
 }
 
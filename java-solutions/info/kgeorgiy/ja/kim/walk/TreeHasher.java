@@ -0,0 +1,139 @@
+package info.kgeorgiy.ja.kim.walk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Merkle tree digest: the file is split into fixed-size chunks hashed concurrently with positional reads.
+// Leaves are H(0x00 || chunk), inner nodes are H(0x01 || left || right), an odd last node is promoted.
+// The result is not the plain digest of the file, so it is written with a "tree-<algorithm>-<chunk size>:" label.
+public final class TreeHasher implements FileHasher, AutoCloseable {
+    private static final byte LEAF = 0;
+    private static final byte NODE = 1;
+
+    private final DigestAlgorithm algorithm;
+    private final long chunkSize;
+    private final String label;
+    private final String errorCode;
+    private final ExecutorService executor;
+
+    public TreeHasher(final DigestAlgorithm algorithm, final long chunkSize, final int threads) {
+        this.algorithm = algorithm;
+        this.chunkSize = chunkSize;
+        this.label = "tree-" + algorithm.getName().toLowerCase(Locale.ROOT) + "-" + chunkSize + ":";
+        this.errorCode = label + algorithm.errorCode();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "tree-hasher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public String hash(final Path file) {
+        final WalkMetrics metrics = WalkMetrics.get();
+        RateLimiter.get().file();
+        final long opening = System.nanoTime();
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long reading = System.nanoTime();
+            final long size = channel.size();
+            metrics.record(WalkMetrics.Stage.OPEN, reading - opening, file, size);
+            final String hash = label + WalkUtils.toHex(hash(channel, size));
+            metrics.record(WalkMetrics.Stage.READ, System.nanoTime() - reading, file, size);
+            metrics.file(size);
+            return hash;
+        } catch (IOException | InvalidPathException e) {
+            WalkUtils.message("Cannot calculate hash", e, e.getMessage());
+        } catch (ExecutionException e) {
+            WalkUtils.message("Cannot calculate hash", e.getCause(), e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        metrics.error();
+        return errorCode;
+    }
+
+    private byte[] hash(final FileChannel channel, final long size)
+            throws IOException, ExecutionException, InterruptedException {
+        if (size <= chunkSize) {
+            return leaf(channel, 0, size);
+        }
+
+        final List<Future<byte[]>> chunks = new ArrayList<>();
+        try {
+            for (long position = 0; position < size; position += chunkSize) {
+                final long from = position;
+                chunks.add(executor.submit(() -> leaf(channel, from, Math.min(chunkSize, size - from))));
+            }
+            final List<byte[]> leaves = new ArrayList<>(chunks.size());
+            for (final Future<byte[]> chunk : chunks) {
+                leaves.add(chunk.get());
+            }
+            return root(leaves);
+        } finally {
+            chunks.forEach(chunk -> chunk.cancel(true));
+        }
+    }
+
+    private byte[] leaf(final FileChannel channel, final long position, final long length) throws IOException {
+        final HashingContext context = HashingContext.get();
+        final MessageDigest digest = context.digest(algorithm);
+        final ByteBuffer buffer = context.buffer();
+        digest.update(LEAF);
+        for (long offset = 0; offset < length; ) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), length - offset));
+            final int read = channel.read(buffer, position + offset);
+            if (read < 0) {
+                break;
+            }
+            offset += read;
+            digest.update(buffer.flip());
+            RateLimiter.get().bytes(read);
+        }
+        return digest.digest();
+    }
+
+    private byte[] root(List<byte[]> level) {
+        final MessageDigest digest = HashingContext.get().digest(algorithm);
+        while (level.size() > 1) {
+            final List<byte[]> next = new ArrayList<>((level.size() + 1) / 2);
+            for (int i = 0; i + 1 < level.size(); i += 2) {
+                digest.update(NODE);
+                digest.update(level.get(i));
+                digest.update(level.get(i + 1));
+                next.add(digest.digest());
+            }
+            if (level.size() % 2 == 1) {
+                next.add(level.get(level.size() - 1));
+            }
+            level = next;
+        }
+        return level.get(0);
+    }
+
+    @Override
+    public String errorCode() {
+        return errorCode;
+    }
+
+    @Override
+    public String label() {
+        return label;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
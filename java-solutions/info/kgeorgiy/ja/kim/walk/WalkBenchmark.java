@@ -0,0 +1,215 @@
+package info.kgeorgiy.ja.kim.walk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.Stream;
+
+// Measures hashing and traversal on synthetic trees and reports MB/s and files/s.
+// Usage: WalkBenchmark [--warmup N] [--iterations N] [--scale N] [--dir DIR]
+// Files are read from the page cache after the first warmup iteration, so cold reads are not measured.
+public final class WalkBenchmark {
+    private static final int[] BUFFER_SIZES = {1 << 13, 1 << 16, 1 << 20};
+    private static final DigestAlgorithm ALGORITHM = DigestAlgorithm.SHA_256;
+
+    private final int warmup;
+    private final int iterations;
+
+    private WalkBenchmark(final int warmup, final int iterations) {
+        this.warmup = warmup;
+        this.iterations = iterations;
+    }
+
+    @FunctionalInterface
+    private interface Body {
+        void run() throws IOException;
+    }
+
+    private record Tree(String name, Path root, List<Path> files, long bytes) {
+    }
+
+    public static void main(final String[] args) throws IOException {
+        int warmup = 2;
+        int iterations = 5;
+        int scale = 1;
+        Path directory = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--warmup" -> warmup = Integer.parseInt(args[i + 1]);
+                case "--iterations" -> iterations = Integer.parseInt(args[i + 1]);
+                case "--scale" -> scale = Integer.parseInt(args[i + 1]);
+                case "--dir" -> directory = Path.of(args[i + 1]);
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        final Path root = directory == null ? Files.createTempDirectory("walk-benchmark") : directory;
+        try {
+            final Random random = new Random(4875043285743285204L);
+            final List<Tree> trees = List.of(
+                    tiny(root.resolve("tiny"), 5000 * scale, random),
+                    huge(root.resolve("huge"), 2 * scale, random),
+                    deep(root.resolve("deep"), 64 * scale, random)
+            );
+            final WalkBenchmark benchmark = new WalkBenchmark(warmup, iterations);
+            System.out.printf(Locale.ROOT, "%-28s %-6s %10s %10s %12s%n", "benchmark", "tree", "ms/op", "MB/s", "files/s");
+            for (final Tree tree : trees) {
+                benchmark.hashing(tree);
+                benchmark.walking(tree, root);
+            }
+        } finally {
+            if (directory == null) {
+                delete(root);
+            }
+        }
+    }
+
+    private void hashing(final Tree tree) throws IOException {
+        for (final int size : BUFFER_SIZES) {
+            final byte[] array = new byte[size];
+            measure("stream/" + size, tree, () -> forEach(tree, file -> stream(file, array)));
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+            measure("channel/" + size, tree, () -> forEach(tree, file -> channel(file, buffer)));
+        }
+        measure("mmap", tree, () -> forEach(tree, WalkBenchmark::mapped));
+        measure("getHash", tree, () -> forEach(tree, file -> WalkUtils.getHash(file, ALGORITHM)));
+    }
+
+    private void walking(final Tree tree, final Path root) throws IOException {
+        final Path input = root.resolve(tree.name() + ".in");
+        final Path output = root.resolve(tree.name() + ".out");
+        Files.writeString(input, tree.root() + System.lineSeparator());
+        final int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        final String[][] modes = {
+                {},
+                {"--threads", Integer.toString(threads)},
+                {"--async"},
+        };
+        for (final String[] mode : modes) {
+            final WalkOptions options = WalkOptions.parse(mode, 0);
+            final String name = mode.length == 0 ? "walk/sequential" : "walk" + String.join("/", mode).replace("--", "/");
+            measure(name, tree, () -> WalkService.walk(input.toString(), output.toString(), true, options));
+        }
+    }
+
+    private void measure(final String name, final Tree tree, final Body body) throws IOException {
+        for (int i = 0; i < warmup; i++) {
+            body.run();
+        }
+        final long[] times = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            final long start = System.nanoTime();
+            body.run();
+            times[i] = System.nanoTime() - start;
+        }
+        final double seconds = Arrays.stream(times).average().orElse(0) / 1e9;
+        System.out.printf(Locale.ROOT, "%-28s %-6s %10.2f %10.1f %12.0f%n", name, tree.name(),
+                seconds * 1e3, tree.bytes() / seconds / 1e6, tree.files().size() / seconds);
+    }
+
+    @FunctionalInterface
+    private interface FileBody {
+        void run(Path file) throws IOException;
+    }
+
+    private static void forEach(final Tree tree, final FileBody body) throws IOException {
+        for (final Path file : tree.files()) {
+            body.run(file);
+        }
+    }
+
+    private static void stream(final Path file, final byte[] buffer) throws IOException {
+        final MessageDigest digest = ALGORITHM.newDigest();
+        try (final InputStream stream = Files.newInputStream(file)) {
+            int read;
+            while ((read = stream.read(buffer)) >= 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        digest.digest();
+    }
+
+    private static void channel(final Path file, final ByteBuffer buffer) throws IOException {
+        final MessageDigest digest = ALGORITHM.newDigest();
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            WalkUtils.updateRead(digest, channel, buffer);
+        }
+        digest.digest();
+    }
+
+    private static void mapped(final Path file) throws IOException {
+        final MessageDigest digest = ALGORITHM.newDigest();
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            WalkUtils.updateMapped(digest, channel, channel.size());
+        }
+        digest.digest();
+    }
+
+    private static Tree tiny(final Path root, final int files, final Random random) throws IOException {
+        final List<Path> paths = new ArrayList<>(files);
+        for (int i = 0; i < files; i++) {
+            paths.add(root.resolve("d" + i % 100).resolve("f" + i));
+        }
+        return create("tiny", root, paths, 1 << 10, random);
+    }
+
+    private static Tree huge(final Path root, final int files, final Random random) throws IOException {
+        final List<Path> paths = new ArrayList<>(files);
+        for (int i = 0; i < files; i++) {
+            paths.add(root.resolve("f" + i));
+        }
+        return create("huge", root, paths, 1 << 26, random);
+    }
+
+    private static Tree deep(final Path root, final int depth, final Random random) throws IOException {
+        final List<Path> paths = new ArrayList<>();
+        Path directory = root;
+        for (int i = 0; i < depth; i++) {
+            directory = directory.resolve("d" + i);
+            for (int j = 0; j < 8; j++) {
+                paths.add(directory.resolve("f" + j));
+            }
+        }
+        return create("deep", root, paths, 1 << 14, random);
+    }
+
+    private static Tree create(final String name, final Path root, final List<Path> files, final int size,
+                               final Random random) throws IOException {
+        final byte[] data = new byte[Math.min(size, 1 << 20)];
+        for (final Path file : files) {
+            Files.createDirectories(file.getParent());
+            try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                for (int written = 0; written < size; written += data.length) {
+                    random.nextBytes(data);
+                    channel.write(ByteBuffer.wrap(data, 0, Math.min(data.length, size - written)));
+                }
+            }
+        }
+        return new Tree(name, root, files, (long) size * files.size());
+    }
+
+    private static void delete(final Path root) throws IOException {
+        try (final Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+}
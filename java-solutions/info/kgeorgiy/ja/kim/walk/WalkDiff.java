@@ -0,0 +1,90 @@
+package info.kgeorgiy.ja.kim.walk;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Diffs two walk outputs with bounded memory. Unsorted inputs are sorted by path with an external
+// merge sort, with at most --max-lines entries in memory. The sorted manifests are merge-joined
+// and written as a stream of lines:
+//     added <hash> <path>
+//     removed <hash> <path>
+//     changed <old hash> <new hash> <path>
+// Usage: WalkDiff <old> <new> [<output>] [--max-lines N] [--temp DIR]
+public final class WalkDiff {
+    private final ManifestSort sort;
+
+    private WalkDiff(final ManifestSort sort) {
+        this.sort = sort;
+    }
+
+    public static void main(final String[] args) {
+        if (args == null || args.length < 2 || args[0] == null || args[1] == null) {
+            WalkUtils.message("Usage: WalkDiff <old> <new> [<output>] [--max-lines N] [--temp DIR]",
+                    "args = " + (args == null ? "null" : String.join(" ", args)), "");
+            return;
+        }
+        try {
+            String output = null;
+            int maxLines = 1 << 20;
+            Path temp = Path.of(System.getProperty("java.io.tmpdir"));
+            for (int i = 2; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--max-lines" -> maxLines = Integer.parseInt(args[++i]);
+                    case "--temp" -> temp = Path.of(args[++i]);
+                    default -> output = args[i];
+                }
+            }
+            if (maxLines <= 0) {
+                throw new IllegalArgumentException("--max-lines expects a positive number, found: " + maxLines);
+            }
+
+            try (final ManifestSort sort = new ManifestSort(maxLines, temp);
+                 final Writer writer = output == null
+                         ? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))
+                         : Files.newBufferedWriter(Path.of(output))) {
+                new WalkDiff(sort).diff(Path.of(args[0]), Path.of(args[1]), writer);
+            }
+        } catch (IOException e) {
+            WalkUtils.message("Cannot diff manifests", e, e.getMessage());
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            WalkUtils.message("Invalid arguments", e, e.getMessage());
+        }
+    }
+
+    private void diff(final Path oldManifest, final Path newManifest, final Writer writer) throws IOException {
+        try (final BufferedReader oldReader = Files.newBufferedReader(sort.sorted(oldManifest));
+             final BufferedReader newReader = Files.newBufferedReader(sort.sorted(newManifest))) {
+            ManifestSort.Entry previous = ManifestSort.next(oldReader);
+            ManifestSort.Entry current = ManifestSort.next(newReader);
+            while (previous != null || current != null) {
+                final int compare = previous == null ? 1
+                        : current == null ? -1
+                        : ManifestSort.BY_PATH.compare(previous, current);
+                if (compare < 0) {
+                    writer.write("removed ");
+                    previous.write(writer);
+                    previous = ManifestSort.next(oldReader);
+                } else if (compare > 0) {
+                    writer.write("added ");
+                    current.write(writer);
+                    current = ManifestSort.next(newReader);
+                } else {
+                    if (!previous.hash().equals(current.hash())) {
+                        writer.write("changed ");
+                        writer.write(previous.hash());
+                        writer.write(' ');
+                        current.write(writer);
+                    }
+                    previous = ManifestSort.next(oldReader);
+                    current = ManifestSort.next(newReader);
+                }
+            }
+        }
+    }
+}
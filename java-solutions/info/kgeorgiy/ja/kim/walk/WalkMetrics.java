@@ -0,0 +1,173 @@
+package info.kgeorgiy.ja.kim.walk;
+
+import jdk.jfr.FlightRecorder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+// Process-wide walk counters and per-stage latencies, also exposed as JFR events, and as an MXBean
+// once registered with --jmx, so that a plain run does not start the platform MBean server.
+public final class WalkMetrics implements WalkMetricsMXBean {
+    public enum Stage {
+        ENUMERATE, OPEN, READ, WRITE;
+
+        private final String label = name().toLowerCase(Locale.ROOT);
+    }
+
+    public static final String OBJECT_NAME = "info.kgeorgiy.ja.kim.walk:type=WalkMetrics";
+    private static final WalkMetrics INSTANCE = new WalkMetrics();
+    private static boolean registered;
+
+    private final LongAdder files = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LatencyHistogram[] stages = new LatencyHistogram[Stage.values().length];
+    private volatile long started = System.nanoTime();
+
+    private WalkMetrics() {
+        Arrays.setAll(stages, i -> new LatencyHistogram());
+    }
+
+    public static synchronized void register() {
+        if (registered) {
+            return;
+        }
+        registered = true;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        } catch (JMException | SecurityException e) {
+            WalkUtils.message("Cannot register walk metrics MBean", e, e.getMessage());
+        }
+    }
+
+    public static WalkMetrics get() {
+        return INSTANCE;
+    }
+
+    public void file(final long size) {
+        files.increment();
+        bytes.add(size);
+    }
+
+    public void error() {
+        errors.increment();
+    }
+
+    public void record(final Stage stage, final long nanos) {
+        stages[stage.ordinal()].record(nanos);
+    }
+
+    public void record(final Stage stage, final long nanos, final Path file, final long size) {
+        record(stage, nanos);
+        if (!recording()) {
+            return;
+        }
+        final WalkStageEvent event = new WalkStageEvent();
+        if (event.isEnabled()) {
+            event.stage = stage.label;
+            event.path = file.toString();
+            event.latency = nanos;
+            event.bytes = size;
+            event.commit();
+        }
+    }
+
+    @Override
+    public long getFiles() {
+        return files.sum();
+    }
+
+    @Override
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    private double seconds() {
+        return Math.max(System.nanoTime() - started, 1) / 1e9;
+    }
+
+    @Override
+    public double getFilesPerSecond() {
+        return getFiles() / seconds();
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        return getBytes() / seconds();
+    }
+
+    private <V> Map<String, V> byStage(final Function<LatencyHistogram, V> value) {
+        return Arrays.stream(Stage.values())
+                .collect(Collectors.toMap(stage -> stage.label, stage -> value.apply(stages[stage.ordinal()])));
+    }
+
+    @Override
+    public Map<String, Long> getStageCounts() {
+        return byStage(LatencyHistogram::count);
+    }
+
+    @Override
+    public Map<String, Double> getStageMeanMicros() {
+        return byStage(histogram -> histogram.meanNanos() / 1e3);
+    }
+
+    @Override
+    public Map<String, Long> getStageP99Micros() {
+        return byStage(histogram -> histogram.percentileNanos(0.99) / 1000);
+    }
+
+    @Override
+    public void reset() {
+        files.reset();
+        bytes.reset();
+        errors.reset();
+        Arrays.stream(stages).forEach(LatencyHistogram::reset);
+        started = System.nanoTime();
+    }
+
+    // Loading an event class sets JFR up, so events are only created once a recording has been started.
+    private static boolean recording() {
+        return FlightRecorder.isInitialized();
+    }
+
+    public void commitSummary() {
+        if (!recording()) {
+            return;
+        }
+        final WalkSummaryEvent event = new WalkSummaryEvent();
+        if (event.isEnabled()) {
+            event.files = getFiles();
+            event.bytes = getBytes();
+            event.errors = getErrors();
+            event.commit();
+        }
+    }
+
+    public String summary() {
+        final StringBuilder result = new StringBuilder(String.format(Locale.ROOT,
+                "Walk: %d files, %.1f MiB in %.2f s (%.1f files/s, %.1f MiB/s), %d errors%n",
+                getFiles(), getBytes() / 1048576.0, seconds(),
+                getFilesPerSecond(), getBytesPerSecond() / 1048576.0, getErrors()));
+        for (final Stage stage : Stage.values()) {
+            final LatencyHistogram histogram = stages[stage.ordinal()];
+            result.append(String.format(Locale.ROOT,
+                    "    %-9s count %d, total %.1f ms, mean %.1f us, p50 < %d us, p99 < %d us%n",
+                    stage.label, histogram.count(), histogram.totalNanos() / 1e6, histogram.meanNanos() / 1e3,
+                    histogram.percentileNanos(0.5) / 1000 + 1, histogram.percentileNanos(0.99) / 1000 + 1));
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,23 @@
+package info.kgeorgiy.ja.kim.walk;
+
+import java.util.Map;
+
+public interface WalkMetricsMXBean {
+    long getFiles();
+
+    long getBytes();
+
+    long getErrors();
+
+    double getFilesPerSecond();
+
+    double getBytesPerSecond();
+
+    Map<String, Long> getStageCounts();
+
+    Map<String, Double> getStageMeanMicros();
+
+    Map<String, Long> getStageP99Micros();
+
+    void reset();
+}
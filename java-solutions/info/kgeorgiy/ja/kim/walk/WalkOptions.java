@@ -0,0 +1,240 @@
+package info.kgeorgiy.ja.kim.walk;
+
+import java.nio.file.Path;
+
+public final class WalkOptions {
+    public static final WalkOptions DEFAULT = new WalkOptions();
+
+    private int threads = 1;
+    private Path cache;
+    private DigestAlgorithm algorithm = DigestAlgorithm.SHA_256;
+    private boolean watch;
+    private boolean duplicates;
+    private boolean treeHash;
+    private boolean hardLinks;
+    private boolean stats;
+    private boolean jmx;
+    private boolean async;
+    private int queueDepth = 32;
+    private Path checkpoint;
+    private boolean resume;
+    private boolean archives;
+    private boolean directoryDigests;
+    private Path binary;
+    private Schedule schedule = Schedule.INPUT;
+    private long maxBytesPerSecond;
+    private long maxFilesPerSecond;
+    private boolean fingerprint;
+    private int samples = 8;
+    private long chunkSize = 1L << 22;
+    private long debounceMillis = 500;
+
+    private WalkOptions() {
+    }
+
+    public static WalkOptions parse(final String[] args, final int from) {
+        final WalkOptions options = new WalkOptions();
+        try {
+            for (int i = from; i < args.length; i++) {
+                final String option = args[i];
+                if (option == null) {
+                    WalkUtils.message("Invalid option", "option = 'null'", "");
+                    return null;
+                }
+                switch (option) {
+                    case "--threads" -> options.threads = positive(option, value(args, ++i));
+                    case "--cache" -> options.cache = Path.of(value(args, ++i));
+                    case "--algorithm" -> options.algorithm = DigestAlgorithm.forName(value(args, ++i));
+                    case "--watch" -> options.watch = true;
+                    case "--duplicates" -> options.duplicates = true;
+                    case "--tree-hash" -> options.treeHash = true;
+                    case "--hard-links" -> options.hardLinks = true;
+                    case "--chunk-size" -> options.chunkSize = positive(option, value(args, ++i));
+                    case "--stats" -> options.stats = true;
+                    case "--jmx" -> options.jmx = true;
+                    case "--async" -> options.async = true;
+                    case "--queue-depth" -> options.queueDepth = positive(option, value(args, ++i));
+                    case "--checkpoint" -> options.checkpoint = Path.of(value(args, ++i));
+                    case "--resume" -> options.resume = true;
+                    case "--archives" -> options.archives = true;
+                    case "--dir-digests" -> options.directoryDigests = true;
+                    case "--binary" -> options.binary = Path.of(value(args, ++i));
+                    case "--schedule" -> options.schedule = Schedule.forName(value(args, ++i));
+                    case "--max-rate" -> options.maxBytesPerSecond = bytes(option, value(args, ++i));
+                    case "--max-files" -> options.maxFilesPerSecond = positive(option, value(args, ++i));
+                    case "--fingerprint" -> options.fingerprint = true;
+                    case "--samples" -> options.samples = positive(option, value(args, ++i));
+                    case "--debounce" -> options.debounceMillis = positive(option, value(args, ++i));
+                    default -> {
+                        WalkUtils.message("Unknown option: " + option, "args = " + String.join(" ", args), "");
+                        return null;
+                    }
+                }
+            }
+            if (options.async && (options.treeHash || options.cache != null || options.hardLinks)) {
+                throw new IllegalArgumentException(
+                        "--async hashes files directly, without --tree-hash, --cache or --hard-links");
+            }
+            if (options.async && (options.checkpoint != null || options.archives || options.directoryDigests)) {
+                throw new IllegalArgumentException(
+                        "--checkpoint, --archives and --dir-digests are not supported with --async");
+            }
+            if (options.fingerprint && (options.treeHash || options.async)) {
+                throw new IllegalArgumentException("--fingerprint cannot be combined with --tree-hash or --async");
+            }
+            if (options.samples < 2) {
+                throw new IllegalArgumentException("--samples expects at least 2, found: " + options.samples);
+            }
+            if (options.watch && (options.directoryDigests || options.archives || options.binary != null
+                    || options.resume)) {
+                throw new IllegalArgumentException(
+                        "--watch updates file lines only, without --dir-digests, --archives, --binary or --resume");
+            }
+            if (options.resume && options.checkpoint == null) {
+                throw new IllegalArgumentException("--resume requires --checkpoint");
+            }
+        } catch (IllegalArgumentException e) {
+            WalkUtils.message("Invalid option value", e, e.getMessage());
+            return null;
+        }
+        return options;
+    }
+
+    private static String value(final String[] args, final int index) {
+        if (index >= args.length || args[index] == null) {
+            throw new IllegalArgumentException("missing value for " + args[index - 1]);
+        }
+        return args[index];
+    }
+
+    // Accepts K, M and G binary suffixes.
+    private static long bytes(final String option, final String value) {
+        final int last = value.length() - 1;
+        final int shift = last < 0 ? 0 : switch (Character.toUpperCase(value.charAt(last))) {
+            case 'K' -> 10;
+            case 'M' -> 20;
+            case 'G' -> 30;
+            default -> 0;
+        };
+        final String number = shift == 0 ? value : value.substring(0, last);
+        final long result;
+        try {
+            result = Long.parseLong(number);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(option + " expects a number of bytes, found: " + value);
+        }
+        if (result <= 0 || result > Long.MAX_VALUE >> shift) {
+            throw new IllegalArgumentException(option + " expects a positive number of bytes, found: " + value);
+        }
+        return result << shift;
+    }
+
+    private static int positive(final String option, final String value) {
+        final int result;
+        try {
+            result = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(option + " expects a number, found: " + value);
+        }
+        if (result <= 0) {
+            throw new IllegalArgumentException(option + " expects a positive number, found: " + value);
+        }
+        return result;
+    }
+
+    public int threads() {
+        return threads;
+    }
+
+    public boolean parallel() {
+        return threads > 1;
+    }
+
+    public Path cache() {
+        return cache;
+    }
+
+    public DigestAlgorithm algorithm() {
+        return algorithm;
+    }
+
+    public boolean watch() {
+        return watch;
+    }
+
+    public long debounceMillis() {
+        return debounceMillis;
+    }
+
+    public boolean duplicates() {
+        return duplicates;
+    }
+
+    public boolean treeHash() {
+        return treeHash;
+    }
+
+    public long chunkSize() {
+        return chunkSize;
+    }
+
+    public boolean stats() {
+        return stats;
+    }
+
+    public boolean jmx() {
+        return jmx;
+    }
+
+    public boolean async() {
+        return async;
+    }
+
+    public int queueDepth() {
+        return queueDepth;
+    }
+
+    public Path checkpoint() {
+        return checkpoint;
+    }
+
+    public boolean resume() {
+        return resume;
+    }
+
+    public boolean archives() {
+        return archives;
+    }
+
+    public boolean directoryDigests() {
+        return directoryDigests;
+    }
+
+    public Path binary() {
+        return binary;
+    }
+
+    public Schedule schedule() {
+        return schedule;
+    }
+
+    public long maxBytesPerSecond() {
+        return maxBytesPerSecond;
+    }
+
+    public long maxFilesPerSecond() {
+        return maxFilesPerSecond;
+    }
+
+    public boolean fingerprint() {
+        return fingerprint;
+    }
+
+    public int samples() {
+        return samples;
+    }
+
+    public boolean hardLinks() {
+        return hardLinks;
+    }
+}
@@ -3,12 +3,38 @@ package info.kgeorgiy.ja.kim.walk;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitor;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
+import java.nio.file.OpenOption;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Function;
 
 public class WalkService {
+    // Lines in flight per worker, output is reordered within this window
+    private static final int REORDER_WINDOW_PER_THREAD = 4;
+    // Entries sorted in memory at once when building a binary manifest
+    private static final int BINARY_SORT_LINES = 1 << 20;
 
     protected static boolean invalidArguments(String[] args) {
         if (args == null) {
@@ -16,8 +42,8 @@ public class WalkService {
             return true;
         }
 
-        if (args.length != 2) {
-            WalkUtils.message("Invalid arguments length", "excepted: 2, found: " + args.length, "");
+        if (args.length < 2) {
+            WalkUtils.message("Invalid arguments length", "excepted: at least 2, found: " + args.length, "");
             return true;
         }
 
@@ -28,7 +54,35 @@ public class WalkService {
         return false;
     }
 
+    protected static void run(final String[] args, final boolean recursiveWalk) {
+        if (invalidArguments(args)) {
+            return;
+        }
+        final WalkOptions options = WalkOptions.parse(args, 2);
+        if (options == null) {
+            return;
+        }
+        if (options.jmx()) {
+            WalkMetrics.register();
+            RateLimiter.register();
+        }
+        RateLimiter.get().setBytesPerSecond(options.maxBytesPerSecond());
+        RateLimiter.get().setFilesPerSecond(options.maxFilesPerSecond());
+        if (options.duplicates()) {
+            DuplicateFinder.find(args[0], args[1], recursiveWalk, options);
+        } else if (options.watch()) {
+            WalkWatcher.watch(args[0], args[1], recursiveWalk, options);
+        } else {
+            walk(args[0], args[1], recursiveWalk, options);
+        }
+    }
+
     public static void walk(final String nameOfInputFile, final String nameOfOutputFile, boolean recursiveWalk) {
+        walk(nameOfInputFile, nameOfOutputFile, recursiveWalk, WalkOptions.DEFAULT);
+    }
+
+    public static void walk(final String nameOfInputFile, final String nameOfOutputFile, boolean recursiveWalk,
+                            final WalkOptions options) {
         try {
             final Path inputFile = Path.of(nameOfInputFile);
             final Path outputFile = Path.of(nameOfOutputFile);
@@ -42,28 +96,310 @@ public class WalkService {
                 }
             }
 
-            try (final BufferedReader bufferedReader = Files.newBufferedReader(inputFile)) {
-                try (final BufferedWriter bufferedWriter = Files.newBufferedWriter(outputFile)) {
-                    String nameOfNextFile;
-                    while ((nameOfNextFile = bufferedReader.readLine()) != null) {
-                        handle(nameOfNextFile, bufferedWriter, recursiveWalk);
+            final FileHasher base = createHasher(options);
+            try {
+                final HashCache cache = options.cache() == null
+                        ? null
+                        : HashCache.load(options.cache(), options.algorithm().getName() + base.label());
+                final WalkMetrics metrics = WalkMetrics.get();
+                metrics.reset();
+                final FileHasher links = options.hardLinks() ? new HardLinkHasher(base) : base;
+                final FileHasher hasher = cache == null ? links : cache.wrap(links);
+                final ArchiveHasher archives = archives(options);
+
+                try (final BufferedReader bufferedReader = Files.newBufferedReader(inputFile)) {
+                    final Checkpoint checkpoint = options.checkpoint() == null
+                            ? null
+                            : Checkpoint.open(options.checkpoint(), inputFile, outputFile, options.resume(),
+                                    options.parallel() || options.directoryDigests());
+                    final OpenOption[] openOptions = checkpoint != null && checkpoint.resumed()
+                            ? new OpenOption[]{StandardOpenOption.WRITE, StandardOpenOption.APPEND}
+                            : new OpenOption[0];
+                    try (final BufferedWriter bufferedWriter = new BufferedWriter(new MeteredWriter(
+                            new OutputStreamWriter(Files.newOutputStream(outputFile, openOptions),
+                                    StandardCharsets.UTF_8.newEncoder()),
+                            metrics))) {
+                        if (checkpoint != null) {
+                            checkpoint.attach(bufferedWriter);
+                            checkpoint.skip(bufferedReader);
+                        }
+                        if (options.async()) {
+                            walkAsync(bufferedReader, bufferedWriter, recursiveWalk, options);
+                        } else if (options.parallel()) {
+                            walkParallel(bufferedReader, bufferedWriter, recursiveWalk, hasher, options, checkpoint);
+                        } else {
+                            String nameOfNextFile;
+                            while ((nameOfNextFile = bufferedReader.readLine()) != null) {
+                                handle(nameOfNextFile, bufferedWriter, recursiveWalk, hasher, archives,
+                                        directoryAlgorithm(options), checkpoint);
+                                if (checkpoint != null) {
+                                    checkpoint.lineDone();
+                                }
+                            }
+                        }
+                        if (checkpoint != null) {
+                            checkpoint.save();
+                        }
+                    } catch (IOException e) {
+                        WalkUtils.message(
+                                "Cannot open output file: " + outputFile,
+                                "cannot read from input file" + e, e.getMessage()
+                        );
                     }
                 } catch (IOException e) {
-                    WalkUtils.message(
-                            "Cannot open output file: " + outputFile,
-                            "cannot read from input file" + e, e.getMessage()
-                    );
+                    WalkUtils.message("Cannot open input file: " + inputFile, e, e.getMessage());
+                }
+
+                if (cache != null) {
+                    cache.save();
+                }
+                if (options.binary() != null) {
+                    writeBinary(outputFile, options.binary());
+                }
+                metrics.commitSummary();
+                if (options.stats()) {
+                    System.err.print(metrics.summary());
+                }
+            } finally {
+                // Closed on every path, so that its thread pool does not outlive a failed walk.
+                if (base instanceof TreeHasher treeHasher) {
+                    treeHasher.close();
                 }
-            } catch (IOException e) {
-                WalkUtils.message("Cannot open input file: " + inputFile, e, e.getMessage());
             }
         } catch (InvalidPathException e) {
             WalkUtils.message("Invalid path: " + nameOfInputFile, e, e.getMessage());
         }
     }
 
-    private static void handle(final String nameOfNextFile, final BufferedWriter bufferedWriter,
-                               boolean recursiveWalk) {
+    private static void writeBinary(final Path outputFile, final Path binary) {
+        final Path temp = Path.of(System.getProperty("java.io.tmpdir"));
+        try (final ManifestSort sort = new ManifestSort(BINARY_SORT_LINES, temp)) {
+            BinaryManifest.write(outputFile, binary, sort);
+        } catch (IOException e) {
+            WalkUtils.message("Cannot write binary manifest: " + binary, e, e.getMessage());
+        }
+    }
+
+    static FileHasher createHasher(final WalkOptions options) {
+        if (options.fingerprint()) {
+            return new FingerprintHasher(options.algorithm(), options.samples());
+        }
+        if (options.treeHash()) {
+            return new TreeHasher(options.algorithm(), options.chunkSize(), Runtime.getRuntime().availableProcessors());
+        }
+        return options.algorithm();
+    }
+
+    private static ArchiveHasher archives(final WalkOptions options) {
+        return options.archives() ? new ArchiveHasher(options.algorithm()) : null;
+    }
+
+    private static DigestAlgorithm directoryAlgorithm(final WalkOptions options) {
+        return options.directoryDigests() ? options.algorithm() : null;
+    }
+
+    private static void walkParallel(final BufferedReader bufferedReader, final Writer writer,
+                                     final boolean recursiveWalk, final FileHasher hasher,
+                                     final WalkOptions options, final Checkpoint checkpoint) throws IOException {
+        final ForkJoinPool pool = new ForkJoinPool(options.threads());
+        final ArchiveHasher archives = archives(options);
+        final ParallelFileTreeWalker walker = recursiveWalk
+                ? new ParallelFileTreeWalker(hasher, archives, directoryAlgorithm(options), options.schedule())
+                : null;
+        final int window = options.threads() * REORDER_WINDOW_PER_THREAD;
+        // Lines are started in schedule order within a batch, half of the window keeps the next batch running
+        final int batch = options.schedule() == Schedule.INPUT ? 1 : Math.max(1, window / 2);
+        final Deque<ParallelFileTreeWalker.Output> pending = new ArrayDeque<>(window);
+        try {
+            final List<String> names = new ArrayList<>(batch);
+            String nameOfNextFile;
+            do {
+                nameOfNextFile = bufferedReader.readLine();
+                if (nameOfNextFile != null) {
+                    names.add(nameOfNextFile);
+                }
+                if (names.size() == batch || nameOfNextFile == null && !names.isEmpty()) {
+                    for (final ParallelFileTreeWalker.Output output : submit(names, options.schedule(), pool, walker,
+                            name -> handle(name, pool, walker, hasher, archives))) {
+                        if (pending.size() == window) {
+                            write(writer, pending.poll(), checkpoint);
+                        }
+                        pending.add(output);
+                    }
+                    names.clear();
+                }
+            } while (nameOfNextFile != null);
+            while (!pending.isEmpty()) {
+                write(writer, pending.poll(), checkpoint);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void write(final Writer writer, final ParallelFileTreeWalker.Output output,
+                              final Checkpoint checkpoint) throws IOException {
+        output.writeTo(writer);
+        if (checkpoint != null) {
+            checkpoint.lineDone();
+        }
+    }
+
+    // Starts the lines in schedule order and returns their outputs in input order. The walker is handed
+    // the attributes read for the order, so that no input is read twice.
+    private static List<ParallelFileTreeWalker.Output> submit(
+            final List<String> names, final Schedule schedule, final ForkJoinPool pool,
+            final ParallelFileTreeWalker walker, final Function<String, ParallelFileTreeWalker.Output> handler) {
+        final List<ParallelFileTreeWalker.Output> outputs = new ArrayList<>(Collections.nCopies(names.size(), null));
+        if (schedule == Schedule.INPUT) {
+            for (int i = 0; i < names.size(); i++) {
+                outputs.set(i, handler.apply(names.get(i)));
+            }
+            return outputs;
+        }
+
+        final List<Path> paths = new ArrayList<>(names.size());
+        final List<BasicFileAttributes> attributes = new ArrayList<>(names.size());
+        final List<Path> valid = new ArrayList<>(names.size());
+        for (final String name : names) {
+            Path path = null;
+            BasicFileAttributes pathAttributes = null;
+            try {
+                path = Path.of(name);
+                pathAttributes = walker != null
+                        ? ParallelFileTreeWalker.attributes(path)
+                        : Files.readAttributes(path, BasicFileAttributes.class);
+            } catch (InvalidPathException | IOException ignored) {
+                // Reported when the line is handled.
+            }
+            valid.add(path);
+            paths.add(path == null ? Path.of("") : path);
+            attributes.add(pathAttributes);
+        }
+        for (final int i : schedule.order(paths, attributes)) {
+            outputs.set(i, walker != null && valid.get(i) != null
+                    ? walker.start(names.get(i), valid.get(i), attributes.get(i), pool)
+                    : handler.apply(names.get(i)));
+        }
+        return outputs;
+    }
+
+    private static void walkAsync(final BufferedReader bufferedReader, final Writer writer,
+                                  final boolean recursiveWalk, final WalkOptions options) throws IOException {
+        try (final AsyncHasher hasher = new AsyncHasher(options.algorithm(), options.queueDepth())) {
+            final AsyncQueue queue = new AsyncQueue(writer, hasher, options.queueDepth() * REORDER_WINDOW_PER_THREAD);
+            String nameOfNextFile;
+            while ((nameOfNextFile = bufferedReader.readLine()) != null) {
+                final Path file;
+                try {
+                    file = Path.of(nameOfNextFile);
+                } catch (InvalidPathException e) {
+                    WalkUtils.message("Invalid file path " + nameOfNextFile, e, e.getMessage());
+                    queue.error(nameOfNextFile);
+                    continue;
+                }
+                if (recursiveWalk) {
+                    try {
+                        Files.walkFileTree(file, queue);
+                    } catch (InterruptedIOException e) {
+                        throw e;
+                    } catch (IOException e) {
+                        // As in handle: lines of the tree queued so far are kept, the line gets an error.
+                        WalkUtils.message("Cannot walk by file tree: " + e.getMessage(), e, "hashed it with zeroes.");
+                        queue.error(nameOfNextFile);
+                    }
+                } else {
+                    queue.add(file);
+                }
+            }
+            queue.flush();
+        }
+    }
+
+    // Keeps hashes in input order: lines are written as soon as all lines before them are done.
+    private static final class AsyncQueue extends SimpleFileVisitor<Path> {
+        private final Writer writer;
+        private final AsyncHasher hasher;
+        private final int window;
+        private final Deque<Map.Entry<String, CompletableFuture<String>>> pending = new ArrayDeque<>();
+
+        private AsyncQueue(final Writer writer, final AsyncHasher hasher, final int window) {
+            this.writer = writer;
+            this.hasher = hasher;
+            this.window = window;
+        }
+
+        private void add(final Path file) throws IOException {
+            try {
+                add(file.toString(), hasher.hash(file));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Walk was interrupted");
+            }
+        }
+
+        private void error(final String name) throws IOException {
+            add(name, CompletableFuture.completedFuture(hasher.errorCode()));
+        }
+
+        private void add(final String name, final CompletableFuture<String> hash) throws IOException {
+            pending.add(Map.entry(name, hash));
+            while (!pending.isEmpty() && (pending.size() > window || pending.peek().getValue().isDone())) {
+                write();
+            }
+        }
+
+        private void write() throws IOException {
+            final Map.Entry<String, CompletableFuture<String>> head = pending.poll();
+            WalkUtils.writeHash(head.getKey(), writer, await(head.getValue()));
+        }
+
+        private void flush() throws IOException {
+            while (!pending.isEmpty()) {
+                write();
+            }
+        }
+
+        @Override
+        public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+            add(file);
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(final Path file, final IOException exc) throws IOException {
+            error(file.toString());
+            return FileVisitResult.TERMINATE;
+        }
+    }
+
+    private static String await(final Future<String> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Walk was interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException("Cannot handle input line", e.getCause());
+        }
+    }
+
+    private static ParallelFileTreeWalker.Output handle(final String nameOfNextFile, final ForkJoinPool pool,
+                                                        final ParallelFileTreeWalker walker,
+                                                        final FileHasher hasher, final ArchiveHasher archives) {
+        if (walker != null) {
+            return walker.start(nameOfNextFile, pool);
+        }
+        return ParallelFileTreeWalker.Output.of(CompletableFuture.supplyAsync(() -> {
+            final StringWriter writer = new StringWriter();
+            handle(nameOfNextFile, writer, false, hasher, archives, null, null);
+            return writer.toString();
+        }, pool));
+    }
+
+    private static void handle(final String nameOfNextFile, final Writer writer, boolean recursiveWalk,
+                               final FileHasher hasher, final ArchiveHasher archives,
+                               final DigestAlgorithm directoryAlgorithm, final Checkpoint checkpoint) {
         Path fileName = null;
 
         try {
@@ -75,16 +411,21 @@ public class WalkService {
         try {
             if (fileName != null) {
                 if (recursiveWalk) {
-                    Files.walkFileTree(fileName, new Sha256FileVisitor(bufferedWriter));
+                    final FileVisitor<Path> visitor =
+                            new Sha256FileVisitor(writer, hasher, archives, directoryAlgorithm);
+                    Files.walkFileTree(fileName, checkpoint == null ? visitor : checkpoint.visitor(visitor));
                 } else {
-                    WalkUtils.writeHash(fileName, bufferedWriter);
+                    WalkUtils.writeHash(fileName, writer, hasher);
+                    if (archives != null && Files.isRegularFile(fileName)) {
+                        archives.writeEntries(fileName, writer);
+                    }
                 }
             } else {
-                WalkUtils.writeHash(nameOfNextFile, bufferedWriter, WalkUtils.ERROR_CODE);
+                WalkUtils.writeHash(nameOfNextFile, writer, hasher.errorCode());
             }
         } catch (InvalidPathException | IOException e) {
-            WalkUtils.message("Cannot walk by file tree: " + e.getMessage(), e, "hashed it with 64 zeroes.");
-            WalkUtils.writeHash(nameOfNextFile, bufferedWriter, WalkUtils.ERROR_CODE);
+            WalkUtils.message("Cannot walk by file tree: " + e.getMessage(), e, "hashed it with zeroes.");
+            WalkUtils.writeHash(nameOfNextFile, writer, hasher.errorCode());
         }
     }
 }
@@ -0,0 +1,31 @@
+package info.kgeorgiy.ja.kim.walk;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+@Name("info.kgeorgiy.ja.kim.walk.Stage")
+@Label("Walk Stage")
+@Category({"Walk"})
+@Description("One stage of hashing a file: enumerate, open, read or write")
+@StackTrace(false)
+class WalkStageEvent extends Event {
+    @Label("Stage")
+    String stage;
+
+    @Label("Path")
+    String path;
+
+    @Label("Latency")
+    @Timespan(Timespan.NANOSECONDS)
+    long latency;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+}
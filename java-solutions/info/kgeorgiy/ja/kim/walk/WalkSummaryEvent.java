@@ -0,0 +1,24 @@
+package info.kgeorgiy.ja.kim.walk;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("info.kgeorgiy.ja.kim.walk.Summary")
+@Label("Walk Summary")
+@Category({"Walk"})
+@StackTrace(false)
+class WalkSummaryEvent extends Event {
+    @Label("Files")
+    long files;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Errors")
+    long errors;
+}
@@ -1,54 +1,162 @@
 package info.kgeorgiy.ja.kim.walk;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Arrays;
 import java.util.HexFormat;
 
 public final class WalkUtils {
     public static final String ERROR_CODE = "0".repeat(64);
+    private static final HexFormat HEX = HexFormat.of();
+
+    // Files of at least this size are hashed through mapped windows instead of reads
+    static final long MAP_THRESHOLD = 1L << 22;
+    static final long MAP_WINDOW = 1L << 26;
 
     private WalkUtils() {
     }
 
-    public static void writeHash(final Path file, final BufferedWriter bufferedWriter) {
-        writeHash(file.toString(), bufferedWriter, getHash(file));
+    public static void writeHash(final Path file, final Writer writer) {
+        writeHash(file, writer, DigestAlgorithm.SHA_256);
+    }
+
+    public static void writeHash(final Path file, final Writer writer, final FileHasher hasher) {
+        hasher.writeHash(file, writer);
+    }
+
+    public static void writeHash(final Path file, final BasicFileAttributes attributes, final Writer writer,
+                                 final FileHasher hasher) {
+        hasher.writeHash(file, attributes, writer);
     }
 
-    public static void writeHash(final String fileName, final BufferedWriter bufferedWriter, final String hash) {
+    public static void writeHash(final String fileName, final Writer writer, final String hash) {
         try {
-            bufferedWriter.write(String.format("%s %s\n", hash, fileName));
+            writer.write(hash);
+            writeName(fileName, writer);
         } catch (IOException e) {
             message("Cannot write to output file: " + fileName, e, e.getMessage());
         }
     }
 
-    public static String getHash(final Path file) {
-        final byte[] buffer = new byte[1 << 16];
-        final MessageDigest DIGEST;
-
+    static void writeDigest(final Path file, final Writer writer, final DigestAlgorithm algorithm) {
+        final HashingContext context = HashingContext.get();
+        final int length = digest(file, algorithm, context);
+        final String fileName = file.toString();
         try {
-            DIGEST = MessageDigest.getInstance("SHA-256");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
+            if (length < 0) {
+                writer.write(algorithm.errorCode());
+            } else {
+                writer.write(context.hex(), 0, length);
+            }
+            writeName(fileName, writer);
+        } catch (IOException e) {
+            message("Cannot write to output file: " + fileName, e, e.getMessage());
         }
-        try (final InputStream stream = new BufferedInputStream(Files.newInputStream(file))) {
-            // :NOTE: затирать буффер необязательно
-            Arrays.fill(buffer, (byte) 0);
-            for (int toRead = stream.read(buffer); toRead != -1; toRead = stream.read(buffer)) {
-                DIGEST.update(buffer, 0, toRead);
+    }
+
+    private static void writeName(final String fileName, final Writer writer) throws IOException {
+        writer.write(' ');
+        writer.write(fileName);
+        writer.write('\n');
+    }
+
+    public static String getHash(final Path file) {
+        return getHash(file, DigestAlgorithm.SHA_256);
+    }
+
+    public static String getHash(final Path file, final DigestAlgorithm algorithm) {
+        final HashingContext context = HashingContext.get();
+        final int length = digest(file, algorithm, context);
+        return length < 0 ? algorithm.errorCode() : new String(context.hex(), 0, length);
+    }
+
+    // Returns the length of the hex digest in the context, or -1 if the file cannot be hashed.
+    private static int digest(final Path file, final DigestAlgorithm algorithm, final HashingContext context) {
+        final MessageDigest digest = context.digest(algorithm);
+        final WalkMetrics metrics = WalkMetrics.get();
+        RateLimiter.get().file();
+        final long opening = System.nanoTime();
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long reading = System.nanoTime();
+            final long size = channel.size();
+            metrics.record(WalkMetrics.Stage.OPEN, reading - opening, file, size);
+            final long read;
+            if (size >= MAP_THRESHOLD) {
+                updateMapped(digest, channel, size);
+                read = size;
+            } else {
+                read = updateRead(digest, channel, context.buffer());
             }
-            return toHex(DIGEST.digest());
+            final int length = context.finish(digest);
+            metrics.record(WalkMetrics.Stage.READ, System.nanoTime() - reading, file, read);
+            metrics.file(read);
+            return length;
         } catch (IOException | InvalidPathException e) {
             message("Cannot calculate hash", e, e.getMessage());
-            return ERROR_CODE;
+            metrics.error();
+            return -1;
+        }
+    }
+
+    // Returns the number of bytes read.
+    static long updateRead(final MessageDigest digest, final FileChannel channel, final ByteBuffer buffer)
+            throws IOException {
+        final RateLimiter limiter = RateLimiter.get();
+        long total = 0;
+        buffer.clear();
+        int read;
+        while ((read = channel.read(buffer)) != -1) {
+            total += read;
+            digest.update(buffer.flip());
+            buffer.clear();
+            limiter.bytes(read);
+        }
+        return total;
+    }
+
+    static void updateMapped(final MessageDigest digest, final FileChannel channel, final long size)
+            throws IOException {
+        final RateLimiter limiter = RateLimiter.get();
+        for (long position = 0; position < size; position += MAP_WINDOW) {
+            final ByteBuffer window =
+                    channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW, size - position));
+            try {
+                if (!limiter.limitsBytes()) {
+                    digest.update(window);
+                    continue;
+                }
+                // Pages are read while digested, so a limited window is digested in slices.
+                while (window.hasRemaining()) {
+                    final int length = Math.min(window.remaining(), HashingContext.BUFFER_SIZE);
+                    digest.update(window.slice(window.position(), length));
+                    window.position(window.position() + length);
+                    limiter.bytes(length);
+                }
+            } catch (InternalError e) {
+                // Reading a page past the end of a file truncated after mapping faults instead of failing.
+                throw new IOException("File was truncated while being hashed", e);
+            }
+        }
+    }
+
+    public static Path temporarySibling(final Path file) {
+        return file.resolveSibling(file.getFileName() + ".tmp");
+    }
+
+    public static void moveAtomically(final Path source, final Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
         }
     }
 
@@ -63,6 +171,10 @@ public final class WalkUtils {
     }
 
     public static String toHex(byte[] bytes) {
-        return HexFormat.of().formatHex(bytes);
+        return HEX.formatHex(bytes);
+    }
+
+    public static byte[] fromHex(String hex) {
+        return HEX.parseHex(hex);
     }
 }
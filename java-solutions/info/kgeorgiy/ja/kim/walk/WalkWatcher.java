@@ -0,0 +1,402 @@
+package info.kgeorgiy.ja.kim.walk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// Keeps the output of a walk current: one full walk, then only files reported by the WatchService
+// are rehashed, and only their lines are written. A changed hash is overwritten in place, a new file is
+// appended, and the line of a deleted one is blanked out with spaces. The manifest is compacted
+// once blanked lines take half of it, so keeping it current costs O(changes) amortized. A deleted input
+// gets an error line, as in a fresh walk.
+public final class WalkWatcher implements AutoCloseable {
+    private static final int MAX_DEBOUNCE_ROUNDS = 10;
+    private static final int COMPACT_RATIO = 2;
+
+    private final Path outputFile;
+    private final Set<Path> ignored;
+    private final boolean recursiveWalk;
+    private final FileHasher hasher;
+    private final long debounceMillis;
+    private final WatchService watchService;
+
+    // Position of a line in the output file, and its hash.
+    private record Line(long offset, int length, String hash) {
+    }
+
+    private final Map<String, Line> manifest = new LinkedHashMap<>();
+    private final Set<Path> roots = new HashSet<>();
+    private long size;
+    private long blanked;
+    // Open while an update is written.
+    private FileChannel output;
+    // Entries of the manifest and the directories above them by parent, so a deleted directory is dropped
+    // without scanning the manifest.
+    private final Map<Path, Set<Path>> children = new HashMap<>();
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final Set<WatchKey> trees = new HashSet<>();
+    private final Set<Path> tracked = new HashSet<>();
+
+    private WalkWatcher(final Path outputFile, final boolean recursiveWalk, final FileHasher hasher,
+                        final long debounceMillis) throws IOException {
+        this.outputFile = outputFile;
+        this.ignored = Set.of(
+                outputFile.toAbsolutePath().normalize(),
+                WalkUtils.temporarySibling(outputFile).toAbsolutePath().normalize()
+        );
+        this.recursiveWalk = recursiveWalk;
+        this.hasher = hasher;
+        this.debounceMillis = debounceMillis;
+        this.watchService = outputFile.getFileSystem().newWatchService();
+    }
+
+    public static void watch(final String nameOfInputFile, final String nameOfOutputFile, final boolean recursiveWalk,
+                             final WalkOptions options) {
+        try {
+            final Path inputFile = Path.of(nameOfInputFile);
+            final Path outputFile = Path.of(nameOfOutputFile);
+            try (final WalkWatcher watcher = new WalkWatcher(outputFile, recursiveWalk,
+                    WalkService.createHasher(options), options.debounceMillis())) {
+                // Registered before the first walk, so changes made during it are not lost.
+                watcher.register(readRoots(inputFile));
+                WalkService.walk(nameOfInputFile, nameOfOutputFile, recursiveWalk, options);
+                watcher.load();
+                watcher.loop();
+            }
+        } catch (IOException e) {
+            WalkUtils.message("Cannot watch files", e, e.getMessage());
+        } catch (InvalidPathException e) {
+            WalkUtils.message("Invalid path", e, e.getMessage());
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static List<Path> readRoots(final Path inputFile) throws IOException {
+        final List<Path> roots = new ArrayList<>();
+        try (final BufferedReader reader = Files.newBufferedReader(inputFile)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    roots.add(Path.of(line));
+                } catch (InvalidPathException ignored) {
+                    // Written as an error line by the walk, nothing to watch.
+                }
+            }
+        }
+        return roots;
+    }
+
+    private void register(final List<Path> roots) {
+        this.roots.addAll(roots);
+        for (final Path root : roots) {
+            if (recursiveWalk && Files.isDirectory(root, LinkOption.NOFOLLOW_LINKS)) {
+                registerTree(root);
+            } else {
+                tracked.add(root);
+                final Path parent = root.getParent();
+                registerDirectory(parent == null ? Path.of("") : parent, false);
+            }
+        }
+    }
+
+    private void registerTree(final Path root) {
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) {
+                    registerDirectory(dir, true);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(final Path file, final IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            WalkUtils.message("Cannot watch directory: " + root, e, e.getMessage());
+        }
+    }
+
+    private void registerDirectory(final Path directory, final boolean tree) {
+        try {
+            final Path watched = directory.toString().isEmpty() ? Path.of(".") : directory;
+            final WatchKey key = watched.register(
+                    watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE
+            );
+            directories.put(key, directory);
+            if (tree) {
+                trees.add(key);
+            }
+        } catch (IOException e) {
+            WalkUtils.message("Cannot watch directory: " + directory, e, e.getMessage());
+        }
+    }
+
+    // Reads the lines with their byte offsets, so that they can be overwritten in place.
+    private void load() throws IOException {
+        try (final InputStream input = new BufferedInputStream(Files.newInputStream(outputFile))) {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            int b;
+            while ((b = input.read()) >= 0) {
+                if (b != '\n') {
+                    bytes.write(b);
+                    continue;
+                }
+                final int length = bytes.size() + 1;
+                final String line = bytes.toString(StandardCharsets.UTF_8);
+                bytes.reset();
+                final int space = line.indexOf(' ');
+                if (space >= 0 && !line.isBlank()) {
+                    final String name = line.substring(space + 1);
+                    manifest.put(name, new Line(size, length, line.substring(0, space)));
+                    try {
+                        index(Path.of(name));
+                    } catch (InvalidPathException e) {
+                        // Error line for an invalid input path, never changes.
+                    }
+                } else {
+                    blanked += length;
+                }
+                size += length;
+            }
+        }
+    }
+
+    // Changed paths are mapped to true when they may be new directories that have to be scanned.
+    private void loop() throws IOException, InterruptedException {
+        final Map<Path, Boolean> changed = new LinkedHashMap<>();
+        int rounds = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            final WatchKey key = changed.isEmpty()
+                    ? watchService.take()
+                    : watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+            if (key != null) {
+                collect(key, changed);
+            }
+            if (!changed.isEmpty() && (key == null || ++rounds >= MAX_DEBOUNCE_ROUNDS)) {
+                update(changed);
+                changed.clear();
+                rounds = 0;
+            }
+        }
+    }
+
+    private void collect(final WatchKey key, final Map<Path, Boolean> changed) {
+        final Path directory = directories.get(key);
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                tracked.forEach(file -> changed.merge(file, false, Boolean::logicalOr));
+                trees.stream().map(directories::get).forEach(dir -> changed.put(dir, true));
+                continue;
+            }
+            final Path file = directory.resolve((Path) event.context());
+            if ((trees.contains(key) || tracked.contains(file)) && !ignored.contains(file.toAbsolutePath().normalize())) {
+                changed.merge(file, event.kind() == StandardWatchEventKinds.ENTRY_CREATE, Boolean::logicalOr);
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+            if (trees.remove(key) && roots.contains(directory)) {
+                // A deleted input tree gets an error line, and is watched from its parent to be walked again.
+                changed.merge(directory, false, Boolean::logicalOr);
+                tracked.add(directory);
+                final Path parent = directory.getParent();
+                registerDirectory(parent == null ? Path.of("") : parent, false);
+            }
+        }
+    }
+
+    private void update(final Map<Path, Boolean> changed) throws IOException {
+        try (final FileChannel channel = FileChannel.open(outputFile, StandardOpenOption.WRITE)) {
+            output = channel;
+            for (final Map.Entry<Path, Boolean> entry : changed.entrySet()) {
+                update(entry.getKey(), entry.getValue());
+            }
+        } finally {
+            output = null;
+        }
+        if (blanked * COMPACT_RATIO > size) {
+            compact();
+        }
+    }
+
+    private void update(final Path file, final boolean created) throws IOException {
+        final BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            remove(file);
+            if (roots.contains(file)) {
+                put(file, hasher.errorCode());
+            }
+            return;
+        } catch (IOException e) {
+            put(file, hasher.errorCode());
+            return;
+        }
+        if (!attributes.isDirectory()) {
+            put(file, hasher.hash(file, attributes));
+        } else if (!recursiveWalk) {
+            put(file, hasher.errorCode());
+        } else if (created) {
+            // New directory: its files are not in the manifest yet, and neither are the files of a deleted one.
+            remove(file);
+            registerTree(file);
+            rehashTree(file);
+        }
+    }
+
+    private void rehashTree(final Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                put(file, hasher.hash(file, attrs));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path file, final IOException exc) throws IOException {
+                put(file, hasher.errorCode());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void put(final Path file, final String hash) throws IOException {
+        final String name = file.toString();
+        final Line line = manifest.get(name);
+        if (line != null && line.hash().equals(hash)) {
+            return;
+        }
+        if (line != null && line.hash().length() == hash.length()) {
+            // Hashes of one hasher have the same length, so the hash is overwritten in place.
+            write(hash.getBytes(StandardCharsets.UTF_8), line.offset());
+            manifest.put(name, new Line(line.offset(), line.length(), hash));
+            return;
+        }
+        if (line != null) {
+            blank(line);
+        }
+        final byte[] bytes = bytes(name, hash);
+        write(bytes, size);
+        manifest.put(name, new Line(size, bytes.length, hash));
+        size += bytes.length;
+        index(file);
+    }
+
+    private void index(final Path file) {
+        Path child = file;
+        for (Path parent = file.getParent(); parent != null; parent = parent.getParent()) {
+            if (!children.computeIfAbsent(parent, directory -> new HashSet<>()).add(child)) {
+                // The directories above are indexed already.
+                break;
+            }
+            child = parent;
+        }
+    }
+
+    private void remove(final Path file) throws IOException {
+        drop(file);
+        final Path parent = file.getParent();
+        if (parent != null && children.containsKey(parent)) {
+            children.get(parent).remove(file);
+        }
+    }
+
+    // A deleted directory takes all of its entries with it.
+    private void drop(final Path file) throws IOException {
+        final Line line = manifest.remove(file.toString());
+        if (line != null) {
+            blank(line);
+        }
+        final Set<Path> nested = children.remove(file);
+        if (nested != null) {
+            for (final Path child : nested) {
+                drop(child);
+            }
+        }
+    }
+
+    private void blank(final Line line) throws IOException {
+        final byte[] spaces = new byte[line.length()];
+        Arrays.fill(spaces, (byte) ' ');
+        spaces[spaces.length - 1] = '\n';
+        write(spaces, line.offset());
+        blanked += line.length();
+    }
+
+    private void write(final byte[] bytes, final long offset) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            position += output.write(buffer, position);
+        }
+    }
+
+    private static byte[] bytes(final String name, final String hash) {
+        final StringWriter writer = new StringWriter();
+        WalkUtils.writeHash(name, writer, hash);
+        return writer.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Writes the manifest without the blanked lines.
+    private void compact() throws IOException {
+        final Path temp = WalkUtils.temporarySibling(outputFile);
+        long offset = 0;
+        try (final OutputStream stream = new BufferedOutputStream(Files.newOutputStream(temp))) {
+            for (final Map.Entry<String, Line> entry : manifest.entrySet()) {
+                final byte[] bytes = bytes(entry.getKey(), entry.getValue().hash());
+                stream.write(bytes);
+                entry.setValue(new Line(offset, bytes.length, entry.getValue().hash()));
+                offset += bytes.length;
+            }
+        }
+        WalkUtils.moveAtomically(temp, outputFile);
+        size = offset;
+        blanked = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (hasher instanceof TreeHasher treeHasher) {
+            treeHasher.close();
+        }
+        watchService.close();
+    }
+}
@@ -0,0 +1,157 @@
+package info.kgeorgiy.ja.kim.walk;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.DigestException;
+import java.security.MessageDigest;
+
+// Streaming XXH64 with seed 0, digest is the canonical big-endian representation.
+public final class XxHash64Digest extends MessageDigest {
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+    private static final int STRIPE = 32;
+
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final ByteBuffer stripe = ByteBuffer.allocate(STRIPE);
+    private long v1;
+    private long v2;
+    private long v3;
+    private long v4;
+    private long total;
+
+    public XxHash64Digest() {
+        super("XXH64");
+        engineReset();
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return 8;
+    }
+
+    @Override
+    protected void engineReset() {
+        v1 = PRIME1 + PRIME2;
+        v2 = PRIME2;
+        v3 = 0;
+        v4 = -PRIME1;
+        total = 0;
+        stripe.clear();
+    }
+
+    @Override
+    protected void engineUpdate(final byte input) {
+        total++;
+        stripe.put(input);
+        if (!stripe.hasRemaining()) {
+            consume(stripe, 0);
+            stripe.clear();
+        }
+    }
+
+    @Override
+    protected void engineUpdate(final byte[] input, final int offset, final int len) {
+        engineUpdate(ByteBuffer.wrap(input, offset, len));
+    }
+
+    @Override
+    protected void engineUpdate(final ByteBuffer input) {
+        total += input.remaining();
+        if (stripe.position() > 0) {
+            while (stripe.hasRemaining() && input.hasRemaining()) {
+                stripe.put(input.get());
+            }
+            if (stripe.hasRemaining()) {
+                return;
+            }
+            consume(stripe, 0);
+            stripe.clear();
+        }
+
+        int position = input.position();
+        final int limit = input.limit();
+        for (; position + STRIPE <= limit; position += STRIPE) {
+            consume(input, position);
+        }
+        input.position(position);
+        stripe.put(input);
+    }
+
+    private void consume(final ByteBuffer buffer, final int position) {
+        v1 = round(v1, (long) LONG.get(buffer, position));
+        v2 = round(v2, (long) LONG.get(buffer, position + 8));
+        v3 = round(v3, (long) LONG.get(buffer, position + 16));
+        v4 = round(v4, (long) LONG.get(buffer, position + 24));
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        return ByteBuffer.allocate(8).putLong(finish()).array();
+    }
+
+    @Override
+    protected int engineDigest(final byte[] buf, final int offset, final int len) throws DigestException {
+        if (len < 8) {
+            throw new DigestException("buffer too short: " + len);
+        }
+        final long hash = finish();
+        for (int i = 0; i < 8; i++) {
+            buf[offset + i] = (byte) (hash >>> ((7 - i) << 3));
+        }
+        return 8;
+    }
+
+    private long finish() {
+        long hash;
+        if (total >= STRIPE) {
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            hash = merge(hash, v1);
+            hash = merge(hash, v2);
+            hash = merge(hash, v3);
+            hash = merge(hash, v4);
+        } else {
+            hash = PRIME5;
+        }
+        hash += total;
+
+        final int length = stripe.position();
+        int position = 0;
+        for (; position + 8 <= length; position += 8) {
+            hash ^= round(0, (long) LONG.get(stripe, position));
+            hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+        }
+        if (position + 4 <= length) {
+            hash ^= ((int) INT.get(stripe, position) & 0xFFFFFFFFL) * PRIME1;
+            hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+            position += 4;
+        }
+        for (; position < length; position++) {
+            hash ^= (stripe.get(position) & 0xFFL) * PRIME5;
+            hash = Long.rotateLeft(hash, 11) * PRIME1;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= PRIME2;
+        hash ^= hash >>> 29;
+        hash *= PRIME3;
+        hash ^= hash >>> 32;
+
+        engineReset();
+        return hash;
+    }
+
+    private static long round(final long accumulator, final long input) {
+        return Long.rotateLeft(accumulator + input * PRIME2, 31) * PRIME1;
+    }
+
+    private static long merge(final long hash, final long value) {
+        return (hash ^ round(0, value)) * PRIME1 + PRIME4;
+    }
+}